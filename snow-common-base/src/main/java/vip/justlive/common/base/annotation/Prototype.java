@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2018 justlive1
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package vip.justlive.common.base.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 原型bean<br>
+ * 用在类上，每次获取或注入时创建新实例<br>
+ * 注入时可使用Supplier&lt;T&gt;类型的参数，每次调用get创建新实例
+ * 
+ * @author wubo
+ *
+ */
+@Documented
+@Target({ElementType.TYPE})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Prototype {
+
+  /**
+   * bean的id，默认使用class::getName
+   * 
+   * @return bean的id
+   */
+  String value() default "";
+}
@@ -63,6 +63,11 @@ public class BaseConstants {
    */
   public static final String VERTICLE_PATH_KEY = "main.verticle.path";
 
+  /**
+   * 忽略编译时bean索引，总是扫描classpath的属性key
+   */
+  public static final String INDEX_IGNORE_KEY = "main.index.ignore";
+
   /**
    * 逗号分隔符
    */
@@ -16,8 +16,8 @@ package vip.justlive.common.base.datasource;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import org.reflections.Reflections;
 import lombok.extern.slf4j.Slf4j;
+import vip.justlive.common.base.support.BeanIndex;
 
 /**
  * TypeHandler帮助类
@@ -35,8 +35,8 @@ public class TypeHandlerHelper {
       new ConcurrentHashMap<>();
 
   static {
-    Reflections ref = new Reflections("vip.justlive");
-    Set<Class<? extends TypeHandler>> clazzes = ref.getSubTypesOf(TypeHandler.class);
+    Set<Class<? extends TypeHandler>> clazzes =
+        BeanIndex.getSubTypesOf(TypeHandler.class, "vip.justlive");
     for (Class<? extends TypeHandler> clazz : clazzes) {
       try {
         TypeHandler instance = clazz.newInstance();
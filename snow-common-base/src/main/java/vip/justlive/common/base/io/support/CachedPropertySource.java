@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2018 justlive1
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package vip.justlive.common.base.io.support;
+
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import vip.justlive.common.base.io.PropertySource;
+import vip.justlive.common.base.util.Checks;
+import vip.justlive.common.base.util.PlaceHolderHelper;
+
+/**
+ * 缓存解析结果的配置源
+ * <p>
+ * 按属性键缓存占位替换后的值，命中时不再解析；底层属性集合变更后需调用{@link #invalidate()}
+ * 
+ * @author wubo
+ *
+ */
+public class CachedPropertySource implements PropertySource {
+
+  /**
+   * 属性不存在的标记
+   */
+  private static final String ABSENT = new String("");
+
+  private final Properties props;
+
+  /**
+   * 解析后的属性值，失效时整体替换，避免失效前的解析结果写入新缓存
+   */
+  private volatile Map<String, String> resolved = new ConcurrentHashMap<>();
+
+  public CachedPropertySource(Properties props) {
+    Checks.notNull(props, "'props' must not be null");
+    this.props = props;
+  }
+
+  @Override
+  public Properties props() {
+    return props;
+  }
+
+  @Override
+  public String getProperty(String key) {
+    Map<String, String> cache = resolved;
+    String value = cache.get(key);
+    if (value == null) {
+      value = props.getProperty(key);
+      if (value == null) {
+        value = ABSENT;
+      } else {
+        value = PlaceHolderHelper.DEFAULT_HELPER.replacePlaceholders(value, props);
+      }
+      cache.put(key, value);
+    }
+    if (value == ABSENT) {
+      return null;
+    }
+    return value;
+  }
+
+  @Override
+  public String getProperty(String key, String defaultValue) {
+    String value = getProperty(key);
+    if (value != null || defaultValue == null) {
+      return value;
+    }
+    return PlaceHolderHelper.DEFAULT_HELPER.replacePlaceholders(defaultValue, props);
+  }
+
+  /**
+   * 清除缓存的解析结果
+   */
+  public void invalidate() {
+    resolved = new ConcurrentHashMap<>();
+  }
+}
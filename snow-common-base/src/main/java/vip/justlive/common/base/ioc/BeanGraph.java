@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2018 justlive1
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package vip.justlive.common.base.ioc;
+
+import java.lang.reflect.Parameter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import vip.justlive.common.base.annotation.Named;
+
+/**
+ * 待实例bean的依赖图
+ * <p>
+ * 按注入参数类型找到会注册该类型的待实例bean作为依赖，拓扑排序后每个bean只实例一次<br>
+ * 延迟和原型bean不参与排序，但直接注入时在实例过程中创建，其依赖作为注入方的传递依赖
+ *
+ * @author wubo
+ *
+ */
+class BeanGraph {
+
+  /**
+   * 待实例的类和bean名称，保持扫描顺序
+   */
+  private final Map<Class<?>, String> beans = new LinkedHashMap<>();
+
+  /**
+   * 延迟和原型bean，注入时才实例
+   */
+  private final Map<Class<?>, String> factories = new LinkedHashMap<>();
+
+  /**
+   * 添加待实例bean
+   *
+   * @param clazz 类
+   * @param name bean名称
+   */
+  void add(Class<?> clazz, String name) {
+    beans.put(clazz, name);
+  }
+
+  /**
+   * 添加延迟或原型bean
+   *
+   * @param clazz 类
+   * @param name bean名称
+   */
+  void addFactory(Class<?> clazz, String name) {
+    factories.put(clazz, name);
+  }
+
+  String name(Class<?> clazz) {
+    return beans.get(clazz);
+  }
+
+  void clear() {
+    beans.clear();
+    factories.clear();
+  }
+
+  /**
+   * 分层拓扑排序，每层只依赖之前的层，层内保持扫描顺序
+   *
+   * @param strategy 注入策略，提供依赖参数
+   * @return 分层的实例顺序
+   * @throws IllegalStateException 存在循环依赖
+   */
+  List<List<Class<?>>> levels(Strategy strategy) {
+    Map<Class<?>, Set<Class<?>>> edges = new LinkedHashMap<>();
+    Map<Class<?>, Integer> inDegree = new LinkedHashMap<>();
+    Map<Class<?>, Integer> scanIndex = new HashMap<>(beans.size() * 2);
+    for (Class<?> clazz : beans.keySet()) {
+      scanIndex.put(clazz, scanIndex.size());
+      inDegree.put(clazz, 0);
+      edges.put(clazz, new LinkedHashSet<>());
+    }
+    Map<Class<?>, String> candidates = new LinkedHashMap<>(beans);
+    factories.forEach(candidates::putIfAbsent);
+    for (Class<?> clazz : beans.keySet()) {
+      for (Class<?> provider : requires(clazz, strategy, candidates)) {
+        if (edges.get(provider).add(clazz)) {
+          inDegree.merge(clazz, 1, Integer::sum);
+        }
+      }
+    }
+
+    // 按层剥离入度为0的节点，同一层的bean互不依赖
+    List<List<Class<?>>> levels = new ArrayList<>();
+    List<Class<?>> level = new ArrayList<>();
+    for (Map.Entry<Class<?>, Integer> entry : inDegree.entrySet()) {
+      if (entry.getValue() == 0) {
+        level.add(entry.getKey());
+      }
+    }
+    int sorted = 0;
+    while (!level.isEmpty()) {
+      levels.add(level);
+      sorted += level.size();
+      List<Class<?>> next = new ArrayList<>();
+      for (Class<?> clazz : level) {
+        for (Class<?> dependent : edges.get(clazz)) {
+          if (inDegree.merge(dependent, -1, Integer::sum) == 0) {
+            next.add(dependent);
+          }
+        }
+      }
+      next.sort(Comparator.comparing(scanIndex::get));
+      level = next;
+    }
+    if (sorted < beans.size()) {
+      throw new IllegalStateException(
+          String.format("发生循环依赖 %s", cycle(edges, inDegree)));
+    }
+    return levels;
+  }
+
+  /**
+   * 实例前需要完成的待实例bean，注入的延迟和原型bean展开为其依赖
+   *
+   * @throws IllegalStateException 经由延迟或原型bean依赖自身
+   */
+  private Set<Class<?>> requires(Class<?> clazz, Strategy strategy,
+      Map<Class<?>, String> candidates) {
+    Set<Class<?>> requires = new LinkedHashSet<>();
+    Map<Class<?>, Class<?>> injectedBy = new LinkedHashMap<>();
+    Deque<Class<?>> pending = new ArrayDeque<>();
+    pending.push(clazz);
+    while (!pending.isEmpty()) {
+      Class<?> current = pending.pop();
+      for (Parameter param : strategy.dependencies(current)) {
+        for (Class<?> provider : providers(current, param, candidates)) {
+          if (beans.containsKey(provider)) {
+            if (provider == clazz) {
+              throw new IllegalStateException(
+                  String.format("发生循环依赖 %s", path(clazz, current, injectedBy)));
+            }
+            requires.add(provider);
+          } else if (provider != clazz && !injectedBy.containsKey(provider)) {
+            injectedBy.put(provider, current);
+            pending.push(provider);
+          }
+        }
+      }
+    }
+    return requires;
+  }
+
+  private String path(Class<?> clazz, Class<?> last, Map<Class<?>, Class<?>> injectedBy) {
+    List<Class<?>> path = new ArrayList<>();
+    for (Class<?> current = last; current != clazz; current = injectedBy.get(current)) {
+      path.add(0, current);
+    }
+    StringBuilder sb = new StringBuilder(beanName(clazz));
+    for (Class<?> current : path) {
+      sb.append(" -> ").append(beanName(current));
+    }
+    return sb.append(" -> ").append(beanName(clazz)).toString();
+  }
+
+  /**
+   * 会注册为参数类型的bean，不含自身
+   */
+  private List<Class<?>> providers(Class<?> owner, Parameter param,
+      Map<Class<?>, String> candidates) {
+    Class<?> type = param.getType();
+    String name = null;
+    if (param.isAnnotationPresent(Named.class)) {
+      name = param.getAnnotation(Named.class).value();
+    }
+    List<Class<?>> providers = new ArrayList<>(1);
+    for (Map.Entry<Class<?>, String> entry : candidates.entrySet()) {
+      Class<?> clazz = entry.getKey();
+      if (clazz == owner || (name != null && !name.equals(entry.getValue()))) {
+        continue;
+      }
+      if (clazz == type && name == null) {
+        // 同类型优先，与按类型名获取bean一致
+        providers.clear();
+        providers.add(clazz);
+        return providers;
+      }
+      if (exposes(clazz, type)) {
+        providers.add(clazz);
+      }
+    }
+    return providers;
+  }
+
+  /**
+   * 与{@link BeanStore#putBean}注册的类型一致：自身以及自身和父类直接实现的非java接口
+   */
+  private static boolean exposes(Class<?> clazz, Class<?> type) {
+    if (clazz == type) {
+      return true;
+    }
+    if (!type.isInterface() || type.getName().startsWith("java")) {
+      return false;
+    }
+    Class<?> current = clazz;
+    do {
+      for (Class<?> inter : current.getInterfaces()) {
+        if (inter == type) {
+          return true;
+        }
+      }
+      current = current.getSuperclass();
+    } while (current != null && current != Object.class);
+    return false;
+  }
+
+  /**
+   * 在未排序的bean中找出一条环，格式为 A -> B -> A
+   */
+  private String cycle(Map<Class<?>, Set<Class<?>>> edges, Map<Class<?>, Integer> inDegree) {
+    Set<Class<?>> remaining = new LinkedHashSet<>();
+    inDegree.forEach((clazz, degree) -> {
+      if (degree > 0) {
+        remaining.add(clazz);
+      }
+    });
+    // 剩余节点都在环上或在环的下游，沿反向边（依赖方向）走必然回到已访问节点
+    Map<Class<?>, Class<?>> dependencyOf = new LinkedHashMap<>();
+    for (Class<?> provider : remaining) {
+      for (Class<?> dependent : edges.get(provider)) {
+        if (remaining.contains(dependent)) {
+          dependencyOf.putIfAbsent(dependent, provider);
+        }
+      }
+    }
+    List<Class<?>> path = new ArrayList<>();
+    Class<?> current = remaining.iterator().next();
+    while (!path.contains(current)) {
+      path.add(current);
+      current = dependencyOf.get(current);
+    }
+    StringBuilder sb = new StringBuilder();
+    for (Class<?> clazz : path.subList(path.indexOf(current), path.size())) {
+      sb.append(beanName(clazz)).append(" -> ");
+    }
+    return sb.append(beanName(current)).toString();
+  }
+
+  private String beanName(Class<?> clazz) {
+    String name = beans.get(clazz);
+    if (name == null) {
+      name = factories.get(clazz);
+    }
+    if (name.equals(clazz.getName())) {
+      return name;
+    }
+    return String.format("%s(%s)", name, clazz.getName());
+  }
+}
@@ -13,22 +13,39 @@
  */
 package vip.justlive.common.base.ioc;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
 /**
  * bean存储
+ * <p>
+ * 同一类型下的bean按注册顺序保存，按类型注入时优先取与类型同名的bean，否则取最先注册的bean。<br>
+ * 延迟单例和原型bean以{@link BeanFactory}的形式保存，获取时才实例。<br>
+ * Ioc.install完成后冻结为不可变索引，之后的查找不再经过多层并发map
  * 
  * @author wubo
  *
  */
 public class BeanStore {
 
-  static final ConcurrentMap<Class<?>, ConcurrentMap<String, Object>> BEANS =
-      new ConcurrentHashMap<>();
+  /**
+   * 类型到名称和bean，内层map冻结前的读写都需持有BeanStore类锁
+   */
+  static final ConcurrentMap<Class<?>, Map<String, Object>> BEANS = new ConcurrentHashMap<>();
 
   static final Object EMPTY = new Object();
 
+  /**
+   * 冻结的索引，注册新bean时失效
+   */
+  private static volatile Index frozen;
+
   BeanStore() {}
 
   /**
@@ -38,6 +55,10 @@ public class BeanStore {
    * @return bean
    */
   public static <T> T getBean(Class<T> clazz) {
+    Index index = frozen;
+    if (index != null) {
+      return clazz.cast(resolve(index.primary.get(clazz)));
+    }
     return getBean(clazz.getName(), clazz);
   }
 
@@ -49,39 +70,141 @@ public class BeanStore {
    * @return bean
    */
   public static <T> T getBean(String name, Class<T> clazz) {
-    ConcurrentMap<String, Object> map = BEANS.get(clazz);
+    Map<String, Object> map = beans(clazz);
     if (map != null) {
       Object val = map.get(name);
       if (val != EMPTY) {
-        return clazz.cast(val);
+        return clazz.cast(resolve(val));
       }
     }
     return null;
   }
 
-  static void seize(Class<?> clazz) {
-    ConcurrentMap<String, Object> map = BEANS.get(clazz);
+  /**
+   * 获取类型的所有bean，按注册顺序
+   * 
+   * @param clazz 类
+   * @return bean
+   */
+  public static <T> List<T> getBeans(Class<T> clazz) {
+    Index index = frozen;
+    if (index != null) {
+      List<Object> all = index.all.get(clazz);
+      if (all == null) {
+        return Collections.emptyList();
+      }
+      return resolveAll(all, clazz);
+    }
+    Map<String, Object> map = BEANS.get(clazz);
     if (map == null) {
-      BEANS.putIfAbsent(clazz, new ConcurrentHashMap<>(1, 1f));
+      return Collections.emptyList();
+    }
+    List<Object> all;
+    synchronized (BeanStore.class) {
+      all = distinct(map, Object.class);
+    }
+    return resolveAll(all, clazz);
+  }
+
+  /**
+   * 获取类型下名称到bean的映射，冻结后为不可变map，冻结前为加锁复制的快照
+   * 
+   * @param clazz 类
+   * @return 名称到bean，不存在时为null
+   */
+  static Map<String, Object> beans(Class<?> clazz) {
+    Index index = frozen;
+    if (index != null) {
+      return index.named.get(clazz);
+    }
+    synchronized (BeanStore.class) {
+      Map<String, Object> map = BEANS.get(clazz);
+      return map == null ? null : new LinkedHashMap<>(map);
     }
   }
 
-  static <T> void seize(Class<T> clazz, String name) {
+  /**
+   * 冻结当前bean为不可变索引
+   */
+  static synchronized void freeze() {
+    Map<Class<?>, Object> primary = new HashMap<>(BEANS.size() * 2);
+    Map<Class<?>, Map<String, Object>> named = new HashMap<>(BEANS.size() * 2);
+    Map<Class<?>, List<Object>> all = new HashMap<>(BEANS.size() * 2);
+    BEANS.forEach((clazz, map) -> {
+      Map<String, Object> copy = new LinkedHashMap<>(map);
+      copy.values().removeIf(v -> v == EMPTY);
+      if (copy.isEmpty()) {
+        return;
+      }
+      named.put(clazz, Collections.unmodifiableMap(copy));
+      Object bean = copy.get(clazz.getName());
+      primary.put(clazz, bean != null ? bean : copy.values().iterator().next());
+      all.put(clazz, Collections.unmodifiableList(distinct(copy, Object.class)));
+    });
+    frozen = new Index(primary, named, all);
+  }
+
+  static synchronized void seize(Class<?> clazz) {
+    BEANS.computeIfAbsent(clazz, k -> new LinkedHashMap<>(2));
+  }
+
+  static synchronized <T> void seize(Class<T> clazz, String name) {
     seize(clazz);
     if (BEANS.get(clazz).putIfAbsent(name, EMPTY) != null) {
       throw new IllegalArgumentException(String.format("[%s] 名称已被定义", name));
     }
+    frozen = null;
+  }
+
+  static synchronized <T> void putBean(String name, T bean) {
+    register(name, bean.getClass(), bean);
+  }
+
+  /**
+   * 注册延迟单例或原型bean
+   * 
+   * @param name beanId
+   * @param clazz 类
+   * @param singleton true为延迟单例，false为原型
+   */
+  static synchronized void putFactory(String name, Class<?> clazz, boolean singleton) {
+    seize(clazz);
+    if (BEANS.get(clazz).containsKey(name)) {
+      throw new IllegalArgumentException(String.format("[%s] 名称已被定义", name));
+    }
+    register(name, clazz, new BeanFactory(name, clazz, singleton));
+  }
+
+  /**
+   * 如果是工厂则获取实例
+   * 
+   * @param val bean或工厂
+   * @return bean
+   */
+  static Object resolve(Object val) {
+    if (val instanceof BeanFactory) {
+      return ((BeanFactory) val).get();
+    }
+    return val;
   }
 
-  static <T> void putBean(String name, T bean) {
-    Class<?> clazz = bean.getClass();
+  private static void register(String name, Class<?> clazz, Object bean) {
+    frozen = null;
     seize(clazz);
     BEANS.get(clazz).put(name, bean);
     merge(clazz, bean);
     mergeSuperClass(name, clazz, bean);
   }
 
-  static void mergeInterface(String name, Class<?> clazz, Object bean) {
+  private static <T> List<T> resolveAll(List<Object> all, Class<T> clazz) {
+    List<T> list = new ArrayList<>(all.size());
+    for (Object bean : all) {
+      list.add(clazz.cast(resolve(bean)));
+    }
+    return list;
+  }
+
+  static synchronized void mergeInterface(String name, Class<?> clazz, Object bean) {
     Class<?>[] interfaces = clazz.getInterfaces();
     for (Class<?> inter : interfaces) {
       if (!inter.getName().startsWith("java")) {
@@ -94,7 +217,7 @@ public class BeanStore {
     }
   }
 
-  static void mergeSuperClass(String name, Class<?> clazz, Object bean) {
+  static synchronized void mergeSuperClass(String name, Class<?> clazz, Object bean) {
     Class<?> supperClass = clazz;
     do {
       mergeInterface(name, supperClass, bean);
@@ -102,11 +225,132 @@ public class BeanStore {
     } while (supperClass != null && supperClass != Object.class);
   }
 
-  static void merge(Class<?> clazz, Object bean) {
-    ConcurrentMap<String, Object> map = BEANS.get(clazz);
+  /**
+   * 类型下没有与类型同名的bean时，以最先注册的bean作为该类型的bean
+   */
+  static synchronized void mergeAll() {
+    for (Map.Entry<Class<?>, Map<String, Object>> entry : BEANS.entrySet()) {
+      if (!entry.getValue().isEmpty()) {
+        merge(entry.getKey(), entry.getValue().values().iterator().next());
+      }
+    }
+  }
+
+  /**
+   * bean描述，用于日志
+   * 
+   * @return 描述
+   */
+  static synchronized String describe() {
+    return BEANS.toString();
+  }
+
+  static synchronized void merge(Class<?> clazz, Object bean) {
+    Map<String, Object> map = BEANS.get(clazz);
     if (!map.containsKey(clazz.getName())) {
       map.put(clazz.getName(), bean);
     }
   }
 
+  /**
+   * 类型下去重的bean，同一个bean会以自身名称和类型名称注册两次
+   */
+  private static <T> List<T> distinct(Map<String, Object> map, Class<T> clazz) {
+    List<T> list = new ArrayList<>(map.size());
+    for (Object bean : map.values()) {
+      if (bean == EMPTY) {
+        continue;
+      }
+      boolean exists = false;
+      for (T b : list) {
+        if (b == bean) {
+          exists = true;
+          break;
+        }
+      }
+      if (!exists) {
+        list.add(clazz.cast(bean));
+      }
+    }
+    return list;
+  }
+
+  /**
+   * 延迟单例或原型bean的工厂
+   */
+  static final class BeanFactory {
+
+    private static final ThreadLocal<List<String>> CREATING =
+        ThreadLocal.withInitial(ArrayList::new);
+
+    private final String name;
+    private final Class<?> clazz;
+    private final boolean singleton;
+    private volatile Object instance;
+
+    BeanFactory(String name, Class<?> clazz, boolean singleton) {
+      this.name = name;
+      this.clazz = clazz;
+      this.singleton = singleton;
+    }
+
+    Object get() {
+      if (!singleton) {
+        return create();
+      }
+      Object inst = instance;
+      if (inst == null) {
+        synchronized (this) {
+          inst = instance;
+          if (inst == null) {
+            inst = create();
+            instance = inst;
+          }
+        }
+      }
+      return inst;
+    }
+
+    private Object create() {
+      List<String> creating = CREATING.get();
+      if (creating.contains(name)) {
+        creating.add(name);
+        String path =
+            String.join(" -> ", creating.subList(creating.indexOf(name), creating.size()));
+        creating.clear();
+        throw new IllegalStateException(String.format("发生循环依赖 %s", path));
+      }
+      creating.add(name);
+      try {
+        return Ioc.instance(clazz, name);
+      } finally {
+        if (!creating.isEmpty()) {
+          creating.remove(creating.size() - 1);
+        }
+      }
+    }
+
+    @Override
+    public String toString() {
+      return (singleton ? "Lazy[" : "Prototype[") + name + "]";
+    }
+  }
+
+  /**
+   * 冻结的不可变索引
+   */
+  private static class Index {
+
+    final Map<Class<?>, Object> primary;
+    final Map<Class<?>, Map<String, Object>> named;
+    final Map<Class<?>, List<Object>> all;
+
+    Index(Map<Class<?>, Object> primary, Map<Class<?>, Map<String, Object>> named,
+        Map<Class<?>, List<Object>> all) {
+      this.primary = primary;
+      this.named = named;
+      this.all = all;
+    }
+  }
+
 }
@@ -16,7 +16,10 @@ package vip.justlive.common.base.ioc;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Parameter;
-import java.util.concurrent.ConcurrentMap;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Map;
+import java.util.function.Supplier;
 import vip.justlive.common.base.annotation.Inject;
 import vip.justlive.common.base.annotation.Named;
 
@@ -32,13 +35,34 @@ public class ConstructorStrategy implements Strategy {
 
   @Override
   public Object instance(Class<?> clazz) {
-    Constructor<?>[] constructors = clazz.getConstructors();
-    for (Constructor<?> constructor : constructors) {
+    return instance(clazz, require);
+  }
+
+  @Override
+  public Object instance(Class<?> clazz, boolean required) {
+    Constructor<?> constructor = injectConstructor(clazz);
+    if (constructor != null) {
+      return dependencyInstance(clazz, constructor, required);
+    }
+    return nonDependencyInstance(clazz);
+  }
+
+  @Override
+  public Parameter[] dependencies(Class<?> clazz) {
+    Constructor<?> constructor = injectConstructor(clazz);
+    if (constructor != null) {
+      return constructor.getParameters();
+    }
+    return new Parameter[0];
+  }
+
+  Constructor<?> injectConstructor(Class<?> clazz) {
+    for (Constructor<?> constructor : clazz.getConstructors()) {
       if (constructor.isAnnotationPresent(Inject.class)) {
-        return dependencyInstance(clazz, constructor);
+        return constructor;
       }
     }
-    return nonDependencyInstance(clazz);
+    return null;
   }
 
   Object nonDependencyInstance(Class<?> clazz) {
@@ -49,39 +73,75 @@ public class ConstructorStrategy implements Strategy {
     }
   }
 
-  Object dependencyInstance(Class<?> clazz, Constructor<?> constructor) {
+  Object dependencyInstance(Class<?> clazz, Constructor<?> constructor, boolean require) {
     Inject inject = constructor.getAnnotation(Inject.class);
     Parameter[] params = constructor.getParameters();
     Object[] args = new Object[params.length];
-    boolean canInst = fillParams(params, args, inject.required());
+    boolean canInst = fillParams(params, args, inject.required(), require);
     if (canInst) {
-      try {
-        return constructor.newInstance(args);
-      } catch (InstantiationException | IllegalAccessException | IllegalArgumentException
-          | InvocationTargetException e) {
-        throw new IllegalArgumentException(String.format("[%s]有参构造实例对象失败", clazz), e);
-      }
+      return newInstance(clazz, constructor, args);
     }
     return null;
   }
 
-  Object getVal(Parameter param, ConcurrentMap<String, Object> map) {
+  Object newInstance(Class<?> clazz, Constructor<?> constructor, Object[] args) {
+    try {
+      return constructor.newInstance(args);
+    } catch (InstantiationException | IllegalAccessException | IllegalArgumentException
+        | InvocationTargetException e) {
+      throw new IllegalArgumentException(String.format("[%s]有参构造实例对象失败", clazz), e);
+    }
+  }
+
+  Object getVal(Parameter param, Map<String, Object> map) {
+    return getVal(param.getType(), param.getAnnotation(Named.class), map);
+  }
+
+  Object getVal(Class<?> type, Named named, Map<String, Object> map) {
     Object val;
-    if (param.isAnnotationPresent(Named.class)) {
-      Named named = param.getAnnotation(Named.class);
+    if (named != null) {
       val = map.get(named.value());
     } else {
-      val = map.get(param.getType().getName());
+      val = map.get(type.getName());
       if (val == null && !map.isEmpty()) {
         val = map.values().iterator().next();
       }
     }
-    return val;
+    if (val == BeanStore.EMPTY) {
+      return val;
+    }
+    return BeanStore.resolve(val);
+  }
+
+  /**
+   * Supplier参数，调用get时才获取bean，用于延迟单例和原型bean
+   */
+  Supplier<Object> supplier(Parameter param) {
+    Type type = param.getParameterizedType();
+    if (!(type instanceof ParameterizedType)
+        || !(((ParameterizedType) type).getActualTypeArguments()[0] instanceof Class)) {
+      throw new IllegalArgumentException(
+          String.format("[%s]Supplier参数需要指定bean类型", param.getDeclaringExecutable()));
+    }
+    Class<?> beanType = (Class<?>) ((ParameterizedType) type).getActualTypeArguments()[0];
+    Named named = param.getAnnotation(Named.class);
+    return () -> {
+      Map<String, Object> map = BeanStore.beans(beanType);
+      if (map == null) {
+        return null;
+      }
+      Object val = getVal(beanType, named, map);
+      return val == BeanStore.EMPTY ? null : val;
+    };
   }
 
-  boolean fillParams(Parameter[] params, Object[] args, boolean required) {
+  boolean fillParams(Parameter[] params, Object[] args, boolean required, boolean require) {
     for (int i = 0; i < params.length; i++) {
-      ConcurrentMap<String, Object> map = BeanStore.BEANS.get(params[i].getType());
+      if (params[i].getType() == Supplier.class) {
+        args[i] = supplier(params[i]);
+        continue;
+      }
+      Map<String, Object> map = BeanStore.beans(params[i].getType());
       if (map != null) {
         args[i] = getVal(params[i], map);
       }
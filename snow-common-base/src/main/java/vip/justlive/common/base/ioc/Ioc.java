@@ -14,17 +14,23 @@
 package vip.justlive.common.base.ioc;
 
 import java.lang.reflect.Method;
-import java.util.Map.Entry;
-import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.atomic.AtomicInteger;
-import org.reflections.Reflections;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
 import lombok.extern.slf4j.Slf4j;
 import vip.justlive.common.base.annotation.Configuration;
+import vip.justlive.common.base.annotation.Lazy;
+import vip.justlive.common.base.annotation.Prototype;
 import vip.justlive.common.base.annotation.Singleton;
+import vip.justlive.common.base.support.BeanIndex;
+import vip.justlive.common.base.util.ThreadUtils;
 
 /**
  * Ioc <br>
  * 当前只支持构造方法注入<br>
+ * 支持单例、延迟单例({@link Lazy})和原型({@link Prototype})，延迟和原型bean可通过Supplier参数注入<br>
  * 原因: 易于切换不同ioc实现
  * 
  * @author wubo
@@ -35,9 +41,9 @@ public class Ioc {
 
   Ioc() {}
 
-  private static final AtomicInteger TODO_INJECT = new AtomicInteger();
+  private static final BeanGraph GRAPH = new BeanGraph();
 
-  private static Strategy strategy = new ConstructorStrategy();
+  private static volatile Strategy strategy = new ConstructorStrategy();
 
   /**
    * 加载托管bean
@@ -45,9 +51,46 @@ public class Ioc {
    * @param packages 扫描包路径
    */
   public static void install(String... packages) {
+    install(1, packages);
+  }
+
+  /**
+   * 加载托管bean，互不依赖的bean在有界线程池中并行实例，注册顺序与串行一致
+   * <p>
+   * 适用于构造方法中有较慢I/O的bean
+   * 
+   * @param parallelism 并行度，1为串行
+   * @param packages 扫描包路径
+   */
+  public static void install(int parallelism, String... packages) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("parallelism should be positive");
+    }
     scan(packages);
-    ioc();
+    ioc(parallelism);
     merge();
+    BeanStore.freeze();
+  }
+
+  /**
+   * 设置注入策略，需在install之前设置
+   * 
+   * @param strategy 策略，如{@link MethodHandleStrategy}
+   */
+  public static void setStrategy(Strategy strategy) {
+    if (strategy == null) {
+      throw new IllegalArgumentException("strategy can not be null");
+    }
+    Ioc.strategy = strategy;
+  }
+
+  /**
+   * 当前注入策略
+   * 
+   * @return 策略
+   */
+  public static Strategy getStrategy() {
+    return strategy;
   }
 
   /**
@@ -61,20 +104,36 @@ public class Ioc {
   }
 
   static void scan(String... packages) {
-    Reflections ref = new Reflections("vip.justlive", packages);
+    String[] prefixes = new String[packages.length + 1];
+    prefixes[0] = "vip.justlive";
+    System.arraycopy(packages, 0, prefixes, 1, packages.length);
     // Configuration
-    for (Class<?> clazz : ref.getTypesAnnotatedWith(Configuration.class)) {
+    for (Class<?> clazz : BeanIndex.getTypesAnnotatedWith(Configuration.class, prefixes)) {
       configBeans(clazz);
     }
     // Singleton
-    for (Class<?> clazz : ref.getTypesAnnotatedWith(Singleton.class)) {
+    for (Class<?> clazz : BeanIndex.getTypesAnnotatedWith(Singleton.class, prefixes)) {
       Singleton singleton = clazz.getAnnotation(Singleton.class);
       String beanName = singleton.value();
       if (beanName == null || beanName.length() == 0) {
         beanName = clazz.getName();
       }
-      BeanStore.seize(clazz, beanName);
-      TODO_INJECT.incrementAndGet();
+      if (clazz.isAnnotationPresent(Lazy.class)) {
+        BeanStore.putFactory(beanName, clazz, true);
+        GRAPH.addFactory(clazz, beanName);
+      } else {
+        BeanStore.seize(clazz, beanName);
+        GRAPH.add(clazz, beanName);
+      }
+    }
+    // Prototype
+    for (Class<?> clazz : BeanIndex.getTypesAnnotatedWith(Prototype.class, prefixes)) {
+      String beanName = clazz.getAnnotation(Prototype.class).value();
+      if (beanName.length() == 0) {
+        beanName = clazz.getName();
+      }
+      BeanStore.putFactory(beanName, clazz, false);
+      GRAPH.addFactory(clazz, beanName);
     }
   }
 
@@ -107,42 +166,88 @@ public class Ioc {
     }
   }
 
-  static void ioc() {
-    int pre = TODO_INJECT.get();
-    while (TODO_INJECT.get() > 0) {
-      instance();
-      int now = TODO_INJECT.get();
-      if (now > 0 && now == pre) {
-        if (!strategy.isRequired()) {
-          if (log.isDebugEnabled()) {
-            log.debug("ioc失败 出现循环依赖或缺失Bean TODO_INJECT={}, beans={}", now, BeanStore.BEANS);
-          }
-          throw new IllegalStateException("发生循环依赖或者缺失Bean ");
-        } else {
-          strategy.nonRequired();
+  static void ioc(int parallelism) {
+    try {
+      ioc(GRAPH, parallelism);
+    } finally {
+      GRAPH.clear();
+    }
+  }
+
+  static void ioc(BeanGraph graph, int parallelism) {
+    List<List<Class<?>>> levels = graph.levels(strategy);
+    if (parallelism == 1) {
+      for (List<Class<?>> level : levels) {
+        for (Class<?> clazz : level) {
+          BeanStore.putBean(graph.name(clazz), instance(clazz, graph.name(clazz)));
         }
       }
-      pre = now;
+    } else {
+      parallelIoc(graph, levels, parallelism);
     }
   }
 
-  static void instance() {
-    BeanStore.BEANS.forEach((clazz, value) -> value.forEach((name, v) -> {
-      if (v == BeanStore.EMPTY) {
-        Object inst = instanceBean(clazz);
-        if (inst != null) {
-          BeanStore.putBean(name, inst);
-          TODO_INJECT.decrementAndGet();
+  static void parallelIoc(BeanGraph graph, List<List<Class<?>>> levels, int parallelism) {
+    ThreadPoolExecutor executor = ThreadUtils.newThreadPool(parallelism, parallelism, 10,
+        Integer.MAX_VALUE, "ioc-instance-%d");
+    try {
+      for (List<Class<?>> level : levels) {
+        List<Future<Object>> futures = new ArrayList<>(level.size());
+        for (Class<?> clazz : level) {
+          String name = graph.name(clazz);
+          futures.add(executor.submit(() -> instance(clazz, name)));
+        }
+        // 等待层内全部实例完成，期间不注册，同层的bean互相看不到
+        List<Object> beans = new ArrayList<>(level.size());
+        for (Future<Object> future : futures) {
+          beans.add(await(future, futures));
+        }
+        // 再按扫描顺序注册，下一层才能看到
+        for (int i = 0; i < level.size(); i++) {
+          BeanStore.putBean(graph.name(level.get(i)), beans.get(i));
         }
       }
-    }));
+    } finally {
+      executor.shutdownNow();
+    }
   }
 
-  static void merge() {
-    for (Entry<Class<?>, ConcurrentMap<String, Object>> entry : BeanStore.BEANS.entrySet()) {
-      Class<?> clazz = entry.getKey();
-      BeanStore.merge(clazz, entry.getValue().values().iterator().next());
+  private static Object await(Future<Object> future, List<Future<Object>> futures) {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      futures.forEach(f -> f.cancel(true));
+      throw new IllegalStateException("ioc被中断", e);
+    } catch (ExecutionException e) {
+      futures.forEach(f -> f.cancel(true));
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  static Object instance(Class<?> clazz, String name) {
+    Strategy current = strategy;
+    boolean required = current.isRequired();
+    Object inst = current.instance(clazz, required);
+    if (inst == null && required) {
+      // 依赖均已实例，仍无法实例说明存在缺失的非必须Bean，只对该bean按非必须重试
+      inst = current.instance(clazz, false);
     }
+    if (inst == null) {
+      if (log.isDebugEnabled()) {
+        log.debug("ioc失败 缺失Bean class={}, beans={}", clazz, BeanStore.describe());
+      }
+      throw new IllegalStateException(
+          String.format("[%s(%s)] 缺失依赖Bean", name, clazz.getName()));
+    }
+    return inst;
+  }
+
+  static void merge() {
+    BeanStore.mergeAll();
   }
 
 }
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2018 justlive1
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package vip.justlive.common.base.ioc;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Modifier;
+import java.util.function.Supplier;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * MethodHandle构造策略 <br>
+ * 每个类的构造方法只解析一次并缓存：无参构造通过LambdaMetafactory生成Supplier，有参构造编译为展开参数的MethodHandle，
+ * 重复实例时接近直接调用的开销。无法生成时回退为反射
+ * 
+ * <pre>
+ * {@code
+ *   Ioc.setStrategy(new MethodHandleStrategy());
+ *   Ioc.install();
+ * }
+ * </pre>
+ * 
+ * @author wubo
+ *
+ */
+@Slf4j
+public class MethodHandleStrategy extends ConstructorStrategy {
+
+  private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+  private final ClassValue<Factory> factories = new ClassValue<Factory>() {
+    @Override
+    protected Factory computeValue(Class<?> type) {
+      return compile(type);
+    }
+  };
+
+  @Override
+  Constructor<?> injectConstructor(Class<?> clazz) {
+    return factories.get(clazz).constructor;
+  }
+
+  @Override
+  Object nonDependencyInstance(Class<?> clazz) {
+    Factory factory = factories.get(clazz);
+    if (factory.supplier == null) {
+      return super.nonDependencyInstance(clazz);
+    }
+    try {
+      return factory.supplier.get();
+    } catch (Exception e) {
+      throw new IllegalArgumentException(String.format("[%s]无参构造实例对象失败", clazz), e);
+    }
+  }
+
+  @Override
+  Object newInstance(Class<?> clazz, Constructor<?> constructor, Object[] args) {
+    Factory factory = factories.get(clazz);
+    if (factory.handle == null) {
+      return super.newInstance(clazz, constructor, args);
+    }
+    try {
+      return (Object) factory.handle.invokeExact(args);
+    } catch (Throwable e) {
+      throw new IllegalArgumentException(String.format("[%s]有参构造实例对象失败", clazz), e);
+    }
+  }
+
+  private Factory compile(Class<?> clazz) {
+    Constructor<?> constructor = super.injectConstructor(clazz);
+    if (constructor != null) {
+      return new Factory(constructor, null, spreader(constructor));
+    }
+    return new Factory(null, supplier(clazz), null);
+  }
+
+  private MethodHandle spreader(Constructor<?> constructor) {
+    try {
+      int count = constructor.getParameterCount();
+      return LOOKUP.unreflectConstructor(constructor)
+          .asType(MethodType.genericMethodType(count)).asSpreader(Object[].class, count)
+          .asType(MethodType.methodType(Object.class, Object[].class));
+    } catch (IllegalAccessException e) {
+      log.debug("[{}] MethodHandle不可用，使用反射", constructor, e);
+      return null;
+    }
+  }
+
+  private Supplier<?> supplier(Class<?> clazz) {
+    if (!Modifier.isPublic(clazz.getModifiers()) || Modifier.isAbstract(clazz.getModifiers())) {
+      return null;
+    }
+    try {
+      MethodHandle handle = LOOKUP.findConstructor(clazz, MethodType.methodType(void.class));
+      CallSite site = LambdaMetafactory.metafactory(LOOKUP, "get",
+          MethodType.methodType(Supplier.class), MethodType.methodType(Object.class), handle,
+          MethodType.methodType(clazz));
+      return (Supplier<?>) site.getTarget().invokeExact();
+    } catch (Throwable e) {
+      // 非public构造、不同ClassLoader等无法生成的情况
+      log.debug("[{}] LambdaMetafactory不可用，使用反射", clazz, e);
+      return null;
+    }
+  }
+
+  private static class Factory {
+
+    final Constructor<?> constructor;
+    final Supplier<?> supplier;
+    final MethodHandle handle;
+
+    Factory(Constructor<?> constructor, Supplier<?> supplier, MethodHandle handle) {
+      this.constructor = constructor;
+      this.supplier = supplier;
+      this.handle = handle;
+    }
+  }
+}
@@ -13,6 +13,8 @@
  */
 package vip.justlive.common.base.ioc;
 
+import java.lang.reflect.Parameter;
+
 /**
  * 注入策略
  * 
@@ -29,6 +31,32 @@ public interface Strategy {
    */
   Object instance(Class<?> clazz);
 
+  /**
+   * 指定是否必须实例对象，不修改策略的全局状态
+   * <p>
+   * 默认实现在非必须时调用{@link #nonRequired()}，并行实例时应覆盖
+   * 
+   * @param clazz 类
+   * @param required 依赖是否必须
+   * @return 实例
+   */
+  default Object instance(Class<?> clazz, boolean required) {
+    if (!required) {
+      nonRequired();
+    }
+    return instance(clazz);
+  }
+
+  /**
+   * 实例对象需要注入的参数，用于构建依赖图
+   * 
+   * @param clazz 类
+   * @return 注入参数
+   */
+  default Parameter[] dependencies(Class<?> clazz) {
+    return new Parameter[0];
+  }
+
   /**
    * 设置非必须
    */
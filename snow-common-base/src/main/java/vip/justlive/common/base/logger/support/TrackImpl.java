@@ -18,6 +18,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import lombok.Data;
 import vip.justlive.common.base.logger.Track;
+import vip.justlive.common.base.util.ThreadContext;
 
 /**
  * 系统日志工具，非web环境
@@ -29,9 +30,10 @@ import vip.justlive.common.base.logger.Track;
 public class TrackImpl implements Track {
 
   /**
-   * 当前线程UID存储
+   * 当前线程UID存储，保存在线程上下文中，随{@link ThreadContext}装饰的线程池传递
    */
-  protected static final ThreadLocal<String> UIDS = new ThreadLocal<>();
+  protected static final ThreadLocal<String> UIDS =
+      new ThreadContext.ContextLocal<>("track.uid");
 
   /**
    * 分隔符
@@ -0,0 +1,304 @@
+/*
+ * Copyright (C) 2018 justlive1
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package vip.justlive.common.base.support;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.annotation.Annotation;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.reflections.Reflections;
+import org.reflections.util.ClasspathHelper;
+import org.reflections.util.ConfigurationBuilder;
+import org.reflections.util.FilterBuilder;
+import lombok.extern.slf4j.Slf4j;
+import vip.justlive.common.base.constant.BaseConstants;
+
+/**
+ * 编译时bean索引
+ * <p>
+ * 读取classpath下所有{@value #INDEX_LOCATION}，索引由snow-common-index模块的注解处理器在编译时生成。<br>
+ * 索引只覆盖它所在的classpath根（目录或jar），请求的包路径下没有索引的根仍使用Reflections扫描，结果合并返回；
+ * 没有任何索引或配置了{@value BaseConstants#INDEX_IGNORE_KEY}=true时全部使用Reflections扫描。
+ * 相同包路径的扫描结果会被复用
+ *
+ * @author wubo
+ */
+@Slf4j
+public class BeanIndex {
+
+  /**
+   * 索引文件位置
+   */
+  public static final String INDEX_LOCATION = "META-INF/snow/bean.index";
+
+  private static final String SEPARATOR = "=";
+
+  private static final Map<List<String>, Reflections> SCANNED = new ConcurrentHashMap<>(4);
+
+  /**
+   * 包路径下没有索引的根的扫描结果，没有时为空
+   */
+  private static final Map<List<String>, Optional<Reflections>> UNCOVERED =
+      new ConcurrentHashMap<>(4);
+
+  private static volatile Index index;
+
+  BeanIndex() {}
+
+  /**
+   * 是否使用索引
+   *
+   * @return true为使用索引
+   */
+  public static boolean isPresent() {
+    return index() != null;
+  }
+
+  /**
+   * 获取指定包路径下被注解的类
+   *
+   * @param annotation 注解
+   * @param packages 包路径前缀，为空时不限制
+   * @return 类
+   */
+  public static Set<Class<?>> getTypesAnnotatedWith(Class<? extends Annotation> annotation,
+      String... packages) {
+    Index idx = index();
+    if (idx == null) {
+      return scan(packages).getTypesAnnotatedWith(annotation);
+    }
+    Set<Class<?>> result = load(idx.entries.get(annotation.getName()), packages);
+    Optional<Reflections> uncovered = uncovered(idx, packages);
+    if (uncovered.isPresent()) {
+      result.addAll(uncovered.get().getTypesAnnotatedWith(annotation));
+    }
+    return result;
+  }
+
+  /**
+   * 获取指定包路径下的子类，使用索引时只包含可实例的类
+   *
+   * @param type 父类型
+   * @param packages 包路径前缀，为空时不限制
+   * @param <T> 泛型
+   * @return 类
+   */
+  @SuppressWarnings("unchecked")
+  public static <T> Set<Class<? extends T>> getSubTypesOf(Class<T> type, String... packages) {
+    Index idx = index();
+    if (idx == null) {
+      return scan(packages).getSubTypesOf(type);
+    }
+    Set<Class<? extends T>> result = new LinkedHashSet<>();
+    for (Class<?> clazz : load(idx.entries.get(type.getName()), packages)) {
+      if (type.isAssignableFrom(clazz)) {
+        result.add((Class<? extends T>) clazz);
+      }
+    }
+    Optional<Reflections> uncovered = uncovered(idx, packages);
+    if (uncovered.isPresent()) {
+      result.addAll(uncovered.get().getSubTypesOf(type));
+    }
+    return result;
+  }
+
+  /**
+   * 清除已读取的索引和扫描结果
+   */
+  public static synchronized void reset() {
+    index = null;
+    SCANNED.clear();
+    UNCOVERED.clear();
+  }
+
+  private static Reflections scan(String... packages) {
+    return SCANNED.computeIfAbsent(Arrays.asList(packages),
+        k -> new Reflections((Object[]) packages));
+  }
+
+  /**
+   * 扫描包路径下没有索引的classpath根，包路径为空时与直接扫描一致不扫描
+   */
+  private static Optional<Reflections> uncovered(Index idx, String... packages) {
+    return UNCOVERED.computeIfAbsent(Arrays.asList(packages), k -> {
+      Set<URL> urls = new LinkedHashSet<>();
+      for (String pkg : packages) {
+        if (pkg != null) {
+          urls.addAll(ClasspathHelper.forPackage(pkg));
+        }
+      }
+      urls.removeIf(url -> idx.roots.contains(root(url)));
+      for (String pkg : packages) {
+        if (pkg != null && !idx.covers(pkg)) {
+          log.warn("bean index has no entry under [{}], scanning classpath for it", pkg);
+        }
+      }
+      if (urls.isEmpty()) {
+        return Optional.empty();
+      }
+      log.info("scanning {} classpath roots not covered by bean index: {}", urls.size(), urls);
+      return Optional.of(new Reflections(new ConfigurationBuilder().setUrls(urls)
+          .filterInputsBy(new FilterBuilder().includePackage(packages))));
+    });
+  }
+
+  private static Index index() {
+    Index idx = index;
+    if (idx == null) {
+      synchronized (BeanIndex.class) {
+        idx = index;
+        if (idx == null) {
+          idx = readIndex();
+          index = idx;
+        }
+      }
+    }
+    return idx.roots.isEmpty() ? null : idx;
+  }
+
+  private static Index readIndex() {
+    Index idx = new Index();
+    String ignore = ConfigFactory.getProperty(BaseConstants.INDEX_IGNORE_KEY,
+        System.getProperty(BaseConstants.INDEX_IGNORE_KEY));
+    if (Boolean.parseBoolean(ignore)) {
+      return idx;
+    }
+    try {
+      Enumeration<URL> urls = classLoader().getResources(INDEX_LOCATION);
+      while (urls.hasMoreElements()) {
+        URL url = urls.nextElement();
+        read(url, idx.entries);
+        idx.roots.add(root(url));
+      }
+    } catch (IOException e) {
+      log.warn("read bean index error, fallback to scanning", e);
+      return new Index();
+    }
+    return idx;
+  }
+
+  /**
+   * classpath根的标识，jar统一为jar文件路径，目录去掉末尾的分隔符
+   */
+  private static String root(URL url) {
+    String path = url.toExternalForm();
+    int index = path.lastIndexOf(INDEX_LOCATION);
+    if (index >= 0) {
+      path = path.substring(0, index);
+    }
+    if (path.startsWith("jar:")) {
+      path = path.substring(4);
+      index = path.indexOf("!/");
+      if (index >= 0) {
+        path = path.substring(0, index);
+      }
+    }
+    while (path.endsWith("/")) {
+      path = path.substring(0, path.length() - 1);
+    }
+    return path;
+  }
+
+  private static void read(URL url, Map<String, Set<String>> map) throws IOException {
+    try (BufferedReader reader =
+        new BufferedReader(new InputStreamReader(url.openStream(), StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        int index = line.indexOf(SEPARATOR);
+        if (index > 0) {
+          map.computeIfAbsent(line.substring(0, index), k -> new LinkedHashSet<>())
+              .add(line.substring(index + 1).trim());
+        }
+      }
+    }
+  }
+
+  private static Set<Class<?>> load(Set<String> names, String... packages) {
+    if (names == null) {
+      return new LinkedHashSet<>();
+    }
+    Set<Class<?>> classes = new LinkedHashSet<>();
+    ClassLoader loader = classLoader();
+    for (String name : names) {
+      if (!matches(name, packages)) {
+        continue;
+      }
+      try {
+        classes.add(Class.forName(name, false, loader));
+      } catch (ClassNotFoundException | LinkageError e) {
+        log.warn("bean index class [{}] not found", name, e);
+      }
+    }
+    return classes;
+  }
+
+  private static boolean matches(String name, String... packages) {
+    if (packages.length == 0) {
+      return true;
+    }
+    for (String pkg : packages) {
+      if (pkg != null && name.startsWith(pkg)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static ClassLoader classLoader() {
+    ClassLoader loader = Thread.currentThread().getContextClassLoader();
+    if (loader == null) {
+      loader = BeanIndex.class.getClassLoader();
+    }
+    return loader;
+  }
+
+  /**
+   * 读取的索引
+   */
+  private static class Index {
+
+    /**
+     * 注解或类型到类名
+     */
+    final Map<String, Set<String>> entries = new LinkedHashMap<>();
+
+    /**
+     * 有索引的classpath根
+     */
+    final Set<String> roots = new HashSet<>();
+
+    boolean covers(String pkg) {
+      for (Set<String> names : entries.values()) {
+        for (String name : names) {
+          if (name.startsWith(pkg)) {
+            return true;
+          }
+        }
+      }
+      return false;
+    }
+  }
+}
@@ -19,13 +19,14 @@ import java.nio.charset.StandardCharsets;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicLong;
 import lombok.extern.slf4j.Slf4j;
 import vip.justlive.common.base.annotation.Value;
 import vip.justlive.common.base.convert.support.DefaultConverterService;
 import vip.justlive.common.base.exception.Exceptions;
 import vip.justlive.common.base.io.PropertySource;
+import vip.justlive.common.base.io.support.CachedPropertySource;
 import vip.justlive.common.base.io.support.PropertiesLoader;
+import vip.justlive.common.base.util.PlaceHolderHelper;
 import vip.justlive.common.base.util.ReflectUtils;
 
 /**
@@ -52,17 +53,7 @@ public class ConfigFactory {
   /**
    * 配置资源包装
    */
-  private static final PropertySource SOURCE_WRAPPER = () -> PROPS;
-
-  /**
-   * 用于生成临时编号
-   */
-  private static final AtomicLong ATOMIC = new AtomicLong();
-
-  /**
-   * 临时编号前缀
-   */
-  private static final String TMP_PREFIX = "ConfigFactory.tmp.%s";
+  private static final CachedPropertySource SOURCE_WRAPPER = new CachedPropertySource(PROPS);
 
   /**
    * 加载配置文件
@@ -94,6 +85,7 @@ public class ConfigFactory {
    */
   public static void loadProperties(PropertySource source) {
     PROPS.putAll(source.props());
+    SOURCE_WRAPPER.invalidate();
   }
 
   /**
@@ -171,10 +163,7 @@ public class ConfigFactory {
   }
 
   private static Object getProperty(String key, Class<?> type) {
-    String tmpKey = String.format(TMP_PREFIX, ATOMIC.getAndIncrement());
-    PROPS.setProperty(tmpKey, key);
-    String value = getProperty(tmpKey);
-    PROPS.remove(tmpKey);
+    String value = PlaceHolderHelper.DEFAULT_HELPER.replacePlaceholders(key, PROPS);
     if (value.getClass() == type) {
       return value;
     }
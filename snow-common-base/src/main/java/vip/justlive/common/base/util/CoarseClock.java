@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2018 justlive1
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package vip.justlive.common.base.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
+
+/**
+ * 粗粒度时钟，后台线程按精度刷新时间，读取只是一次volatile读
+ * <p>
+ * 一段时间没有读取时后台线程逐步拉长休眠间隔直到1秒，此时读取直接调用System.currentTimeMillis()并唤醒后台线程，
+ * 因此空闲时不会每毫秒唤醒一次，读到的时间也不会因休眠而过期
+ * <p>
+ * 直接读取的系统时间会推进缓存的时间，读取结果单调不减，空闲与刷新切换时不会回退；
+ * 需要感知系统时钟回退时使用{@link #rawMillis()}
+ * <p>
+ * 默认共享实例的精度为1毫秒，可通过系统属性snow.clock.resolution（毫秒）修改
+ *
+ * @author wubo
+ */
+public final class CoarseClock {
+
+  private static final AtomicInteger COUNTER = new AtomicInteger();
+
+  /**
+   * 空闲时最大休眠间隔
+   */
+  private static final long MAX_IDLE_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private static final AtomicLongFieldUpdater<CoarseClock> NOW =
+      AtomicLongFieldUpdater.newUpdater(CoarseClock.class, "now");
+
+  private final long resolutionNanos;
+  private final LongSupplier source;
+  private final Thread updater;
+
+  private volatile long now;
+
+  /**
+   * 后台线程最近一次读取的系统时间，不做单调处理
+   */
+  private volatile long raw;
+
+  /**
+   * 上次刷新后是否被读取过
+   */
+  private volatile boolean accessed;
+
+  /**
+   * 后台线程是否处于空闲退避
+   */
+  private volatile boolean idle;
+
+  private volatile boolean closed;
+
+  private static class InstanceHolder {
+    private InstanceHolder() {}
+
+    public static final CoarseClock INSTANCE =
+        new CoarseClock(Long.getLong("snow.clock.resolution", 1L), TimeUnit.MILLISECONDS,
+            System::currentTimeMillis);
+  }
+
+  private CoarseClock(long resolution, TimeUnit unit, LongSupplier source) {
+    if (resolution <= 0) {
+      throw new IllegalArgumentException("resolution should be positive");
+    }
+    this.resolutionNanos = unit.toNanos(resolution);
+    this.source = source;
+    this.now = source.getAsLong();
+    this.raw = now;
+    // 后台线程开始刷新前读取方直接读系统时间
+    this.idle = true;
+    this.updater = new Thread(this::update, "Coarse-Clock-" + COUNTER.getAndIncrement());
+    this.updater.setDaemon(true);
+    this.updater.start();
+  }
+
+  /**
+   * 共享实例
+   *
+   * @return 时钟
+   */
+  public static CoarseClock shared() {
+    return InstanceHolder.INSTANCE;
+  }
+
+  /**
+   * 共享实例的当前毫秒数
+   *
+   * @return 毫秒数
+   */
+  public static long now() {
+    return InstanceHolder.INSTANCE.millis();
+  }
+
+  /**
+   * 共享实例未做单调处理的当前毫秒数
+   *
+   * @return 毫秒数
+   * @see #rawMillis()
+   */
+  public static long rawNow() {
+    return InstanceHolder.INSTANCE.rawMillis();
+  }
+
+  /**
+   * 创建独立精度的时钟，不再使用时需要调用close
+   *
+   * @param resolution 精度
+   * @param unit 单位
+   * @return 时钟
+   */
+  public static CoarseClock create(long resolution, TimeUnit unit) {
+    return create(resolution, unit, System::currentTimeMillis);
+  }
+
+  /**
+   * 创建使用指定时间源的时钟，用于模拟时钟回退
+   *
+   * @param resolution 精度
+   * @param unit 单位
+   * @param source 时间源
+   * @return 时钟
+   */
+  static CoarseClock create(long resolution, TimeUnit unit, LongSupplier source) {
+    Checks.notNull(unit, "unit can not be null");
+    Checks.notNull(source, "source can not be null");
+    return new CoarseClock(resolution, unit, source);
+  }
+
+  /**
+   * 当前毫秒数，误差不超过精度，单调不减
+   *
+   * @return 毫秒数
+   */
+  public long millis() {
+    if (idle) {
+      accessed = true;
+      LockSupport.unpark(updater);
+      return advance(source.getAsLong());
+    }
+    if (!accessed) {
+      accessed = true;
+    }
+    return now;
+  }
+
+  /**
+   * 当前毫秒数，误差不超过精度，不做单调处理，系统时钟回退时读取结果随之回退
+   * <p>
+   * 用于需要自行判断时钟回退的场景，如{@link SnowflakeIdWorker}
+   *
+   * @return 毫秒数
+   */
+  public long rawMillis() {
+    if (idle) {
+      accessed = true;
+      LockSupport.unpark(updater);
+      return source.getAsLong();
+    }
+    if (!accessed) {
+      accessed = true;
+    }
+    return raw;
+  }
+
+  /**
+   * 停止后台线程，之后的读取直接读系统时间
+   */
+  public void close() {
+    if (this == InstanceHolder.INSTANCE) {
+      throw new IllegalStateException("shared clock can not be closed");
+    }
+    closed = true;
+    idle = true;
+    LockSupport.unpark(updater);
+  }
+
+  /**
+   * 推进缓存的时间，不会回退
+   *
+   * @param millis 系统时间
+   * @return 推进后的时间
+   */
+  private long advance(long millis) {
+    for (;;) {
+      long current = now;
+      if (millis <= current) {
+        return current;
+      }
+      if (NOW.compareAndSet(this, current, millis)) {
+        return millis;
+      }
+    }
+  }
+
+  private void update() {
+    long sleep = resolutionNanos;
+    while (!closed) {
+      sample();
+      if (accessed) {
+        accessed = false;
+        if (idle) {
+          idle = false;
+          // 切换前读取方直接读系统时间，切换后重新读取，避免rawMillis读到早于其结果的时间
+          sample();
+        }
+        sleep = resolutionNanos;
+      } else {
+        // 没有读取时先标记空闲，读取方改为直接读系统时间，再拉长休眠
+        idle = true;
+        sleep = Math.min(sleep << 1, Math.max(MAX_IDLE_NANOS, resolutionNanos));
+      }
+      LockSupport.parkNanos(this, sleep);
+    }
+  }
+
+  private void sample() {
+    long millis = source.getAsLong();
+    raw = millis;
+    advance(millis);
+  }
+}
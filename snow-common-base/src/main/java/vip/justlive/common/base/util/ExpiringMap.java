@@ -13,25 +13,55 @@
  */
 package vip.justlive.common.base.util;
 
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.Serializable;
+import java.lang.ref.WeakReference;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractCollection;
+import java.util.AbstractSet;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Objects;
+import java.util.Queue;
 import java.util.Set;
-import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.stream.Collectors;
-import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+import vip.justlive.common.base.exception.Exceptions;
 
 /**
  * 有失效时间的 Map，可对每个键值对设置失效时间
@@ -47,6 +77,27 @@ import org.apache.commons.lang3.concurrent.BasicThreadFactory;
  *   Map<String, Integer> map = ExpiringMap.<String, Integer>builder()
  *       .expiration(30, TimeUnit.SECONDS).expiringPolicy(ExpiringPolicy.CREATED)
  *       .cleanPolicy(CleanPolicy.SCHEDULE).scheduleDelay(60).build();
+ * 
+ *   Map<String, Integer> map = ExpiringMap.<String, Integer>builder()
+ *       .expiration(30, TimeUnit.SECONDS).storeMode(StoreMode.STRIPED).concurrencyLevel(32)
+ *       .build();
+ *
+ *   Map<String, byte[]> map = ExpiringMap.<String, byte[]>builder().maxSize(64 * 1024 * 1024)
+ *       .weigher((k, v) -> v.length).evictionPolicy(EvictionPolicy.TINY_LFU).build();
+ *
+ *   ExpiringMap<String, User> map = ExpiringMap.<String, User>builder()
+ *       .expiration(5, TimeUnit.MINUTES).loader(userDao::findById)
+ *       .refreshAhead(30, TimeUnit.SECONDS).build();
+ *
+ *   ExpiringMap<String, User> map = ExpiringMap.<String, User>builder().maxSize(10000)
+ *       .recordStats().build();
+ *   ExpiringMap.Stats stats = map.stats();
+ *
+ *   Map<String, Report> map = ExpiringMap.<String, Report>builder().maxSize(100000)
+ *       .offHeap(reportCodec, 4L * 1024 * 1024 * 1024).build();
+ *
+ *   map.snapshot(Paths.get("cache.snap"), keyCodec, reportCodec);
+ *   map.restore(Paths.get("cache.snap"), keyCodec, reportCodec);
  * }
  * </pre>
  * 
@@ -54,16 +105,41 @@ import org.apache.commons.lang3.concurrent.BasicThreadFactory;
  * @param <K> 泛型类
  * @param <V> 泛型类
  */
-public class ExpiringMap<K, V> implements ConcurrentMap<K, V>, Serializable {
+@Slf4j
+public class ExpiringMap<K, V> implements ConcurrentMap<K, V>, AutoCloseable, Serializable {
 
   private static final long serialVersionUID = 1L;
 
-  private final transient ReadWriteLock readWriteLock = new ReentrantReadWriteLock();
-  private final transient Lock readLock = readWriteLock.readLock();
-  private final transient Lock writeLock = readWriteLock.writeLock();
-  private transient ScheduledExecutorService executorService;
+  /**
+   * 分段数上限
+   */
+  private static final int MAX_SEGMENTS = 1 << 16;
+
+  /**
+   * 快照文件头
+   */
+  private static final int SNAPSHOT_MAGIC = 0x534E4F57;
+  private static final int SNAPSHOT_VERSION = 1;
+
+  /**
+   * 快照结束标记，写在键长度的位置
+   */
+  private static final int SNAPSHOT_EOF = -1;
+
   private final transient AtomicLong accumulate = new AtomicLong();
 
+  /**
+   * 是否已提交累计清理，避免重复提交堆积任务
+   */
+  private final transient AtomicBoolean cleanPending = new AtomicBoolean();
+
+  /**
+   * 定时清理任务
+   */
+  private transient CleanTask cleanTask;
+
+  private transient volatile boolean closed;
+
   /**
    * 失效策略
    * 
@@ -100,11 +176,79 @@ public class ExpiringMap<K, V> implements ConcurrentMap<K, V>, Serializable {
   }
 
 
+  /**
+   * 存储方式
+   * 
+   * @author wubo
+   */
+  public enum StoreMode {
+    /**
+     * 有序存储，所有键值共用一把读写锁，键需要实现Comparable
+     */
+    SORTED,
+    /**
+     * 分段哈希存储，每段独立加锁，不同段上的键可并行读写
+     */
+    STRIPED;
+  }
+
+
+  /**
+   * 超出容量时的淘汰策略
+   *
+   * @author wubo
+   */
+  public enum EvictionPolicy {
+    /**
+     * 最近最少使用
+     */
+    LRU,
+    /**
+     * 最不经常使用，访问次数相同时淘汰最早加入的
+     */
+    LFU,
+    /**
+     * Window TinyLFU，新键值先进入窗口LRU，进入主区时与主区淘汰候选比较访问频率决定去留
+     */
+    TINY_LFU;
+  }
+
+
+  /**
+   * 键值被移除的原因
+   *
+   * @author wubo
+   */
+  public enum RemovalCause {
+    /**
+     * 调用remove或clear删除
+     */
+    EXPLICIT,
+    /**
+     * 被新值覆盖
+     */
+    REPLACED,
+    /**
+     * 失效
+     */
+    EXPIRED,
+    /**
+     * 超出容量被淘汰
+     */
+    SIZE;
+  }
+
+
   /**
    * 失效监听
    */
   private transient List<ExpiredListener<K, V>> asyncExpiredListeners;
 
+  /**
+   * 执行失效监听的线程池，为null时使用共用的监听线程池
+   */
+  private transient Executor listenerExecutor;
+
   /**
    * 最大数量
    */
@@ -141,9 +285,69 @@ public class ExpiringMap<K, V> implements ConcurrentMap<K, V>, Serializable {
   private int accumulateThreshold;
 
   /**
-   * 实际数据
+   * 存储方式
+   */
+  private StoreMode storeMode;
+
+  /**
+   * 淘汰策略
+   */
+  private EvictionPolicy evictionPolicy;
+
+  /**
+   * 权重计算
+   */
+  private transient Weigher<? super K, ? super V> weigher;
+
+  /**
+   * 实际数据，按键的hash分段存储
+   */
+  private transient Segment<K, V>[] segments;
+
+  /**
+   * 定位分段的掩码
+   */
+  private transient int segmentMask;
+
+  /**
+   * 值的编码，不为null时值存放在堆外
+   */
+  private transient ValueCodec<V> valueCodec;
+
+  /**
+   * 堆外总容量
+   */
+  private long offHeapCapacity;
+
+  /**
+   * 堆外块大小
+   */
+  private int offHeapBlockSize;
+
+  /**
+   * 统计，未开启时为空实现
+   */
+  private transient StatsCounter stats;
+
+  /**
+   * 加载器，为null时不自动加载
+   */
+  private transient Loader<K, V> loader;
+
+  /**
+   * 剩余有效期小于该毫秒数时异步刷新，0为不提前刷新
+   */
+  private long refreshAheadMillis;
+
+  /**
+   * 加载中的键，同一个键同时只有一个线程执行加载
    */
-  private TreeMap<K, ExpiringValue<V>> data;
+  private final transient ConcurrentMap<K, CompletableFuture<V>> loadings =
+      new ConcurrentHashMap<>();
+
+  private transient Set<K> keySet;
+  private transient Collection<V> values;
+  private transient Set<Map.Entry<K, V>> entrySet;
 
   /**
    * 构造函数
@@ -152,6 +356,7 @@ public class ExpiringMap<K, V> implements ConcurrentMap<K, V>, Serializable {
    */
   private ExpiringMap(final Builder<K, V> builder) {
     asyncExpiredListeners = builder.asyncExpiredListeners;
+    listenerExecutor = builder.listenerExecutor;
     maxSize = builder.maxSize;
     duration = builder.duration;
     timeUnit = builder.timeUnit;
@@ -159,8 +364,17 @@ public class ExpiringMap<K, V> implements ConcurrentMap<K, V>, Serializable {
     expiringPolicy = builder.expiringPolicy;
     scheduleDelay = builder.scheduleDelay;
     accumulateThreshold = builder.accumulateThreshold;
+    storeMode = builder.storeMode;
+    evictionPolicy = builder.evictionPolicy;
+    weigher = builder.weigher;
+    loader = builder.loader;
+    stats = builder.recordStats ? new ConcurrentStatsCounter() : StatsCounter.DISABLED;
+    refreshAheadMillis = builder.refreshAheadMillis;
+    valueCodec = builder.valueCodec;
+    offHeapCapacity = builder.offHeapCapacity;
+    offHeapBlockSize = builder.offHeapBlockSize;
+    initSegments(builder.concurrencyLevel);
     runCleanPolicy();
-    data = new TreeMap<>();
   }
 
   /**
@@ -186,70 +400,204 @@ public class ExpiringMap<K, V> implements ConcurrentMap<K, V>, Serializable {
   }
 
   /**
-   * 真实数量
+   * 真实数量，包含已过期但还未被清理的键值
    * 
    * @return 数量
    */
   public int realSize() {
-    try {
-      readLock.lock();
-      return data.size();
-    } finally {
-      readLock.unlock();
+    long count = 0;
+    for (Segment<K, V> segment : segments) {
+      count += segment.count;
     }
+    return (int) Math.min(count, Integer.MAX_VALUE);
   }
 
+  /**
+   * 未过期的数量
+   * <p>
+   * 各段维护键值计数，最早的失效时间已到的段在读锁下从失效索引头部扣除已到期的键值，最多检查
+   * {@link Segment#LIVE_COUNT_SCAN_LIMIT}项，超出的部分在异步清理前仍计为未过期；
+   * 移除和通知监听交给清理线程异步执行，不在调用线程执行监听
+   */
   @Override
   public int size() {
-    try {
-      readLock.lock();
-      return (int) data.values().parallelStream().filter(r -> !r.isExpired()).count();
-    } finally {
-      readLock.unlock();
+    long now = CoarseClock.now();
+    long count = 0;
+    boolean due = false;
+    for (Segment<K, V> segment : segments) {
+      if (segment.nextDeadline < now) {
+        due = true;
+        count += segment.liveCount(now);
+      } else {
+        count += segment.count;
+      }
+    }
+    if (due && !closed) {
+      runAsyncClean();
     }
+    return (int) Math.min(count, Integer.MAX_VALUE);
   }
 
   @Override
   public boolean isEmpty() {
-    return this.size() > 0;
+    return this.size() == 0;
   }
 
   @Override
   public boolean containsKey(Object key) {
+    Segment<K, V> segment = segmentFor(key);
     try {
-      readLock.lock();
-      ExpiringValue<V> value = data.get(key);
+      segment.readLock.lock();
+      ExpiringValue<K, V> value = segment.data.get(key);
       return value != null && !value.isExpired();
     } finally {
-      readLock.unlock();
+      segment.readLock.unlock();
     }
   }
 
   @Override
   public boolean containsValue(Object value) {
-    for (Entry<K, ExpiringValue<V>> entry : data.entrySet()) {
-      ExpiringValue<V> wrapValue = entry.getValue();
-      if (!wrapValue.isExpired() && Objects.equals(wrapValue.value, value)) {
-        return true;
+    for (Segment<K, V> segment : segments) {
+      try {
+        segment.readLock.lock();
+        for (ExpiringValue<K, V> wrapValue : segment.data.values()) {
+          if (!wrapValue.isExpired() && Objects.equals(segment.valueOf(wrapValue), value)) {
+            return true;
+          }
+        }
+      } finally {
+        segment.readLock.unlock();
       }
     }
     return false;
   }
 
+  /**
+   * 获取值，设置了加载器时未命中会加载，同一个键并发未命中只加载一次
+   */
   @Override
+  @SuppressWarnings("unchecked")
   public V get(Object key) {
+    V value = getIfPresent(key);
+    if (value == null && loader != null) {
+      return load((K) key);
+    }
+    return value;
+  }
+
+  /**
+   * 获取已存在的值，不会触发加载
+   *
+   * @param key 键
+   * @return 值
+   */
+  public V getIfPresent(Object key) {
+    V value = lookup(key);
+    if (value == null) {
+      stats.recordMiss();
+    } else {
+      stats.recordHit();
+    }
+    return value;
+  }
+
+  /**
+   * 当前统计的快照，未开启recordStats时各项都为0
+   *
+   * @return 统计快照
+   */
+  public Stats stats() {
+    return stats.snapshot();
+  }
+
+  private V lookup(Object key) {
+    Segment<K, V> segment = segmentFor(key);
+    ExpiringValue<K, V> hit = null;
     try {
-      readLock.lock();
-      ExpiringValue<V> value = data.get(key);
+      segment.readLock.lock();
+      ExpiringValue<K, V> value = segment.data.get(key);
       if (value == null || value.isExpired()) {
         return null;
       }
       accessRecord(value);
-      return value.value;
+      segment.recordRead(value);
+      hit = value;
+      return segment.valueOf(value);
     } finally {
-      readLock.unlock();
+      segment.readLock.unlock();
+      segment.afterRead();
       record();
+      if (hit != null) {
+        refreshIfNecessary(segment, hit);
+      }
+    }
+  }
+
+  /**
+   * 批量获取值，设置了加载器时未命中的键合并为一次loadAll加载
+   * <p>
+   * 其他线程正在加载的键不会重复加载，等待其结果
+   *
+   * @param keys 键
+   * @return 存在的键值
+   */
+  public Map<K, V> getAll(Iterable<? extends K> keys) {
+    Map<K, V> result = new LinkedHashMap<>();
+    Set<K> misses = new LinkedHashSet<>();
+    for (K key : keys) {
+      V value = getIfPresent(key);
+      if (value != null) {
+        result.put(key, value);
+      } else if (loader != null) {
+        misses.add(key);
+      }
+    }
+    if (misses.isEmpty()) {
+      return result;
+    }
+    Map<K, CompletableFuture<V>> owned = new LinkedHashMap<>();
+    Map<K, CompletableFuture<V>> waiting = new LinkedHashMap<>();
+    for (K key : misses) {
+      CompletableFuture<V> future = new CompletableFuture<>();
+      CompletableFuture<V> loading = loadings.putIfAbsent(key, future);
+      if (loading == null) {
+        owned.put(key, future);
+      } else {
+        waiting.put(key, loading);
+      }
     }
+    if (!owned.isEmpty()) {
+      long start = System.nanoTime();
+      try {
+        Map<K, V> loaded = loader.loadAll(Collections.unmodifiableSet(owned.keySet()));
+        stats.recordLoadSuccess(System.nanoTime() - start);
+        for (Map.Entry<K, CompletableFuture<V>> entry : owned.entrySet()) {
+          V value = loaded == null ? null : loaded.get(entry.getKey());
+          if (value != null) {
+            put(entry.getKey(), value);
+            result.put(entry.getKey(), value);
+          }
+          entry.getValue().complete(value);
+        }
+      } catch (Exception e) {
+        stats.recordLoadFailure(System.nanoTime() - start);
+        for (CompletableFuture<V> future : owned.values()) {
+          future.completeExceptionally(e);
+        }
+        throw unchecked(e);
+      } finally {
+        for (Map.Entry<K, CompletableFuture<V>> entry : owned.entrySet()) {
+          loadings.remove(entry.getKey(), entry.getValue());
+        }
+      }
+    }
+    for (Map.Entry<K, CompletableFuture<V>> entry : waiting.entrySet()) {
+      V value = join(entry.getValue());
+      if (value != null) {
+        result.put(entry.getKey(), value);
+      }
+    }
+    return result;
   }
 
   @Override
@@ -282,380 +630,2237 @@ public class ExpiringMap<K, V> implements ConcurrentMap<K, V>, Serializable {
    * @return 已存在的值
    */
   public V put(K key, V value, long duration, TimeUnit timeUnit) {
+    Segment<K, V> segment = segmentFor(key);
     try {
-      writeLock.lock();
-      ExpiringValue<V> wrapValue = new ExpiringValue<>(value, duration, timeUnit);
-      ExpiringValue<V> preValue = data.put(key, wrapValue);
-      if (data.size() > maxSize) {
-        K k = data.firstKey();
-        data.remove(k);
-      }
+      segment.writeLock.lock();
+      ExpiringValue<K, V> wrapValue = new ExpiringValue<>(key, value, duration, timeUnit);
+      ExpiringValue<K, V> preValue = segment.put(wrapValue);
+      segment.evictIfNecessary();
       if (preValue != null && !preValue.isExpired()) {
         return preValue.value;
       }
       return null;
     } finally {
-      writeLock.unlock();
+      segment.writeLock.unlock();
       record();
     }
   }
 
   @Override
   public V remove(Object key) {
+    Segment<K, V> segment = segmentFor(key);
     try {
-      writeLock.lock();
-      ExpiringValue<V> value = data.remove(key);
+      segment.writeLock.lock();
+      ExpiringValue<K, V> value = segment.remove(key);
       if (value == null || value.isExpired()) {
         return null;
       }
       return value.value;
     } finally {
-      writeLock.unlock();
+      segment.writeLock.unlock();
     }
   }
 
   @Override
   public void putAll(Map<? extends K, ? extends V> m) {
-    try {
-      writeLock.lock();
-      Map<K, ExpiringValue<V>> map = new HashMap<>(m.size());
-      for (Map.Entry<? extends K, ? extends V> entry : m.entrySet()) {
-        map.put(entry.getKey(), new ExpiringValue<>(entry.getValue()));
-      }
-      data.putAll(map);
-    } finally {
-      writeLock.unlock();
-      record();
+    for (Map.Entry<? extends K, ? extends V> entry : m.entrySet()) {
+      put(entry.getKey(), entry.getValue());
     }
   }
 
   @Override
   public void clear() {
-    try {
-      writeLock.lock();
-      data.clear();
-    } finally {
-      writeLock.unlock();
+    for (Segment<K, V> segment : segments) {
+      try {
+        segment.writeLock.lock();
+        segment.clear();
+      } finally {
+        segment.writeLock.unlock();
+      }
     }
   }
 
+  /**
+   * 键的视图，迭代时跳过已过期的键值，弱一致性，不会抛出ConcurrentModificationException
+   */
   @Override
   public Set<K> keySet() {
-    try {
-      readLock.lock();
-      return data.entrySet().parallelStream().filter(r -> !r.getValue().isExpired())
-          .map(Map.Entry::getKey).collect(Collectors.toSet());
-    } finally {
-      readLock.unlock();
+    Set<K> ks = keySet;
+    if (ks == null) {
+      ks = new KeySet();
+      keySet = ks;
     }
+    return ks;
   }
 
+  /**
+   * 值的视图，迭代时跳过已过期的键值，弱一致性
+   */
   @Override
   public Collection<V> values() {
-    try {
-      readLock.lock();
-      return data.values().parallelStream().filter(r -> !r.isExpired()).map(r -> r.value)
-          .collect(Collectors.toList());
-    } finally {
-      readLock.unlock();
+    Collection<V> vs = values;
+    if (vs == null) {
+      vs = new Values();
+      values = vs;
     }
+    return vs;
   }
 
+  /**
+   * 键值对的视图，迭代时跳过已过期的键值，弱一致性，Entry的setValue会保留原失效时间写回
+   */
   @Override
   public Set<Map.Entry<K, V>> entrySet() {
-    try {
-      readLock.lock();
-      return data.entrySet().parallelStream().filter(r -> !r.getValue().isExpired())
-          .map(r -> new MapEntry<>(r.getKey(), r.getValue().value)).collect(Collectors.toSet());
-    } finally {
-      readLock.unlock();
+    Set<Map.Entry<K, V>> es = entrySet;
+    if (es == null) {
+      es = new EntrySet();
+      entrySet = es;
     }
+    return es;
   }
 
   @Override
   public V putIfAbsent(K key, V value) {
-    ExpiringValue<V> wrapValue = new ExpiringValue<>(value);
-    ExpiringValue<V> preVal = data.putIfAbsent(key, wrapValue);
-    if (preVal == null || preVal.expireAt < System.currentTimeMillis()) {
+    Segment<K, V> segment = segmentFor(key);
+    try {
+      segment.writeLock.lock();
+      ExpiringValue<K, V> preVal = segment.data.get(key);
+      if (preVal != null && !preVal.isExpired()) {
+        return segment.valueOf(preVal);
+      }
+      segment.put(new ExpiringValue<>(key, value, duration, timeUnit));
+      segment.evictIfNecessary();
       return null;
+    } finally {
+      segment.writeLock.unlock();
+      record();
     }
-    return preVal.value;
   }
 
   @Override
   public boolean remove(Object key, Object value) {
+    Segment<K, V> segment = segmentFor(key);
     try {
-      readLock.lock();
-      ExpiringValue<V> wrapValue = data.get(key);
-      if (wrapValue != null && !wrapValue.isExpired() && Objects.equals(wrapValue.value, value)) {
-        data.remove(key);
+      segment.writeLock.lock();
+      ExpiringValue<K, V> wrapValue = segment.data.get(key);
+      if (wrapValue != null && !wrapValue.isExpired()
+          && Objects.equals(segment.valueOf(wrapValue), value)) {
+        segment.remove(key);
         return true;
       }
       return false;
     } finally {
-      readLock.unlock();
+      segment.writeLock.unlock();
     }
   }
 
   @Override
   public boolean replace(K key, V oldValue, V newValue) {
+    Segment<K, V> segment = segmentFor(key);
     try {
-      readLock.lock();
-      ExpiringValue<V> wrapValue = data.get(key);
+      segment.writeLock.lock();
+      ExpiringValue<K, V> wrapValue = segment.data.get(key);
       if (wrapValue != null && !wrapValue.isExpired()
-          && Objects.equals(wrapValue.value, oldValue)) {
-        ExpiringValue<V> newWrapValue = new ExpiringValue<>(newValue);
-        newWrapValue.duration = wrapValue.duration;
-        newWrapValue.expireAt = wrapValue.expireAt;
-        data.put(key, newWrapValue);
+          && Objects.equals(segment.valueOf(wrapValue), oldValue)) {
+        segment.put(wrapValue.copyWith(newValue));
         return true;
       }
       return false;
     } finally {
-      readLock.unlock();
+      segment.writeLock.unlock();
     }
   }
 
   @Override
   public V replace(K key, V value) {
+    Segment<K, V> segment = segmentFor(key);
     try {
-      readLock.lock();
-      ExpiringValue<V> wrapValue = data.get(key);
+      segment.writeLock.lock();
+      ExpiringValue<K, V> wrapValue = segment.data.get(key);
       if (wrapValue != null && !wrapValue.isExpired()) {
-        ExpiringValue<V> newWrapValue = new ExpiringValue<>(value);
-        newWrapValue.duration = wrapValue.duration;
-        newWrapValue.expireAt = wrapValue.expireAt;
-        return data.put(key, newWrapValue).value;
+        V preValue = segment.valueOf(wrapValue);
+        segment.put(wrapValue.copyWith(value));
+        return preValue;
       }
       return null;
     } finally {
-      readLock.unlock();
+      segment.writeLock.unlock();
+    }
+  }
+
+  /**
+   * 把未过期的键值写入快照文件，保存绝对失效时间，重启后剩余有效期不变
+   * <p>
+   * 先写临时文件再替换，写入期间的读写不受影响，快照是弱一致的
+   *
+   * @param path 文件
+   * @param keyCodec 键编码
+   * @param valueCodec 值编码
+   * @return 写入的数量
+   * @throws IOException io异常
+   */
+  public int snapshot(Path path, ValueCodec<K> keyCodec, ValueCodec<V> valueCodec)
+      throws IOException {
+    Checks.notNull(path, "path can not be null");
+    Checks.notNull(keyCodec, "keyCodec can not be null");
+    Checks.notNull(valueCodec, "valueCodec can not be null");
+    Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+    int count = 0;
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+      out.writeInt(SNAPSHOT_MAGIC);
+      out.writeInt(SNAPSHOT_VERSION);
+      for (Segment<K, V> segment : segments) {
+        for (ExpiringValue<K, V> wrapValue : segment.data.values()) {
+          if (wrapValue.isExpired()) {
+            continue;
+          }
+          V value = segment.readValue(wrapValue);
+          if (value == null) {
+            continue;
+          }
+          byte[] key = keyCodec.encode(wrapValue.key);
+          byte[] bytes = valueCodec.encode(value);
+          out.writeInt(key.length);
+          out.write(key);
+          out.writeInt(bytes.length);
+          out.write(bytes);
+          out.writeLong(wrapValue.expireAt);
+          out.writeLong(wrapValue.duration);
+          count++;
+        }
+      }
+      out.writeInt(SNAPSHOT_EOF);
+    }
+    try {
+      Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+    }
+    return count;
+  }
+
+  /**
+   * 从快照文件恢复，通过内存映射读取，跳过已过期的键值和map中已存在的键
+   *
+   * @param path 文件
+   * @param keyCodec 键编码
+   * @param valueCodec 值编码
+   * @return 恢复的数量
+   * @throws IOException io异常
+   */
+  public int restore(Path path, ValueCodec<K> keyCodec, ValueCodec<V> valueCodec)
+      throws IOException {
+    Checks.notNull(path, "path can not be null");
+    Checks.notNull(keyCodec, "keyCodec can not be null");
+    Checks.notNull(valueCodec, "valueCodec can not be null");
+    int count = 0;
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      SnapshotReader reader = new SnapshotReader(channel);
+      if (reader.readInt() != SNAPSHOT_MAGIC || reader.readInt() != SNAPSHOT_VERSION) {
+        throw new IOException("not an ExpiringMap snapshot: " + path);
+      }
+      int keyLength;
+      while ((keyLength = reader.readInt()) != SNAPSHOT_EOF) {
+        byte[] key = reader.readBytes(keyLength);
+        byte[] value = reader.readBytes(reader.readInt());
+        long expireAt = reader.readLong();
+        long entryDuration = reader.readLong();
+        if (expireAt != ExpiringValue.NOT_EXPIRED && expireAt <= System.currentTimeMillis()) {
+          continue;
+        }
+        ExpiringValue<K, V> wrapValue =
+            new ExpiringValue<>(keyCodec.decode(key), valueCodec.decode(value));
+        wrapValue.expireAt = expireAt;
+        wrapValue.duration = entryDuration;
+        if (restore(wrapValue)) {
+          count++;
+        }
+      }
+    }
+    return count;
+  }
+
+  private boolean restore(ExpiringValue<K, V> wrapValue) {
+    Segment<K, V> segment = segmentFor(wrapValue.key);
+    try {
+      segment.writeLock.lock();
+      ExpiringValue<K, V> preVal = segment.data.get(wrapValue.key);
+      if (preVal != null && !preVal.isExpired()) {
+        return false;
+      }
+      segment.put(wrapValue);
+      segment.evictIfNecessary();
+      return true;
+    } finally {
+      segment.writeLock.unlock();
+    }
+  }
+
+  private void initSegments(int concurrencyLevel) {
+    int size = 1;
+    if (storeMode == StoreMode.STRIPED) {
+      while (size < concurrencyLevel && size < MAX_SEGMENTS) {
+        size <<= 1;
+      }
+    }
+    // 每段容量向上取整，保证总容量不小于maxSize
+    long segmentMaxWeight = ((long) maxSize + size - 1) / size;
+    // 堆外空间不足时也需要按淘汰策略腾出空间
+    boolean bounded = maxSize < Integer.MAX_VALUE || valueCodec != null;
+    @SuppressWarnings("unchecked")
+    Segment<K, V>[] array = (Segment<K, V>[]) new Segment<?, ?>[size];
+    segments = array;
+    segmentMask = size - 1;
+    for (int i = 0; i < size; i++) {
+      Eviction<K, V> eviction = null;
+      if (bounded) {
+        eviction = Eviction.of(evictionPolicy, segmentMaxWeight);
+      }
+      OffHeapStore<V> store = null;
+      if (valueCodec != null) {
+        store = new OffHeapStore<>(valueCodec, offHeapCapacity / size, offHeapBlockSize);
+      }
+      segments[i] =
+          new Segment<>(storeMode, segmentMaxWeight, eviction, weigher, stats, store);
     }
   }
 
+  private Segment<K, V> segmentFor(Object key) {
+    if (segmentMask == 0) {
+      return segments[0];
+    }
+    int h = key.hashCode();
+    return segments[(h ^ (h >>> 16)) & segmentMask];
+  }
+
   private void record() {
     accumulate.getAndIncrement();
     checkAccumulate();
   }
 
-  private void accessRecord(ExpiringValue<V> value) {
+  private void accessRecord(ExpiringValue<K, V> value) {
     if (expiringPolicy == ExpiringPolicy.ACCESSED) {
-      value.expireAt = System.currentTimeMillis() + value.duration;
+      value.expireAt = CoarseClock.now() + value.duration;
     }
   }
 
-  private void checkAccumulate() {
-    if (cleanPolicy == CleanPolicy.ACCUMULATE && accumulate.get() % accumulateThreshold == 0) {
-      runAccumulateCleanPolicy();
+  private V load(K key) {
+    CompletableFuture<V> future = new CompletableFuture<>();
+    CompletableFuture<V> loading = loadings.putIfAbsent(key, future);
+    if (loading != null) {
+      return join(loading);
+    }
+    try {
+      // 抢到加载权前可能刚有其他线程加载完成
+      V value = lookup(key);
+      if (value == null) {
+        long start = System.nanoTime();
+        try {
+          value = loader.load(key);
+        } catch (Exception e) {
+          stats.recordLoadFailure(System.nanoTime() - start);
+          throw e;
+        }
+        stats.recordLoadSuccess(System.nanoTime() - start);
+        if (value != null) {
+          put(key, value);
+        }
+      }
+      future.complete(value);
+      return value;
+    } catch (Exception e) {
+      future.completeExceptionally(e);
+      throw unchecked(e);
+    } finally {
+      loadings.remove(key, future);
     }
   }
 
-  private void runCleanPolicy() {
-    executorService = new ScheduledThreadPoolExecutor(1, new BasicThreadFactory.Builder()
-        .namingPattern("ExpiringMap-Clean-Pool-%d").daemon(true).build());
-    if (cleanPolicy == CleanPolicy.SCHEDULE) {
-      runScheduleCleanPolicy();
+  private void refreshIfNecessary(Segment<K, V> segment, ExpiringValue<K, V> hit) {
+    if (refreshAheadMillis <= 0 || hit.expireAt == ExpiringValue.NOT_EXPIRED
+        || hit.expireAt - CoarseClock.now() > refreshAheadMillis) {
+      return;
+    }
+    K key = hit.key;
+    CompletableFuture<V> future = new CompletableFuture<>();
+    if (loadings.putIfAbsent(key, future) != null) {
+      return;
+    }
+    try {
+      RefreshHolder.EXECUTOR.execute(() -> refresh(segment, hit, future));
+    } catch (RejectedExecutionException e) {
+      // 刷新池繁忙时放弃本次刷新，键值到期后由get同步加载
+      loadings.remove(key, future);
+      future.complete(segment.readValue(hit));
     }
   }
 
-  private void expiredClean() {
+  private void refresh(Segment<K, V> segment, ExpiringValue<K, V> hit,
+      CompletableFuture<V> future) {
+    K key = hit.key;
+    long start = System.nanoTime();
     try {
-      writeLock.lock();
-      for (Map.Entry<K, ExpiringValue<V>> entry : data.entrySet()) {
-        if (entry.getValue().isExpired()) {
-          K key = entry.getKey();
-          V value = entry.getValue().value;
-          data.remove(key);
-          notifyListener(key, value);
+      V value = loader.load(key);
+      stats.recordLoadSuccess(System.nanoTime() - start);
+      if (value != null) {
+        try {
+          segment.writeLock.lock();
+          // 刷新期间被其他写入覆盖或删除时不回写
+          if (segment.data.get(key) == hit) {
+            segment.put(new ExpiringValue<>(key, value, hit.duration, TimeUnit.MILLISECONDS));
+            segment.evictIfNecessary();
+          }
+        } finally {
+          segment.writeLock.unlock();
         }
       }
+      future.complete(value);
+    } catch (Exception e) {
+      stats.recordLoadFailure(System.nanoTime() - start);
+      log.warn("refresh key [{}] error", key, e);
+      future.completeExceptionally(e);
     } finally {
-      writeLock.unlock();
+      loadings.remove(key, future);
     }
+  }
 
+  private V join(CompletableFuture<V> future) {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw Exceptions.wrap(e);
+    } catch (ExecutionException e) {
+      throw unchecked(e.getCause());
+    }
   }
 
-  private void notifyListener(K key, V value) {
-    if (asyncExpiredListeners != null && !asyncExpiredListeners.isEmpty()) {
-      for (ExpiredListener<K, V> listener : asyncExpiredListeners) {
-        listener.expire(key, value);
-      }
+  private static RuntimeException unchecked(Throwable e) {
+    if (e instanceof RuntimeException) {
+      return (RuntimeException) e;
     }
+    return Exceptions.wrap(e);
   }
 
-  private void runScheduleCleanPolicy() {
-    executorService.scheduleWithFixedDelay(this::expiredClean, scheduleDelay, scheduleDelay,
-        TimeUnit.SECONDS);
+  private void checkAccumulate() {
+    if (cleanPolicy == CleanPolicy.ACCUMULATE && accumulate.get() % accumulateThreshold == 0
+        && !closed) {
+      runAsyncClean();
+    }
   }
 
-  private void runAccumulateCleanPolicy() {
-    executorService.execute(this::expiredClean);
+  private void runCleanPolicy() {
+    if (cleanPolicy == CleanPolicy.SCHEDULE) {
+      runScheduleCleanPolicy();
+    }
   }
 
   /**
-   * 失效监听
+   * 清理已过期的键值，每段最多检查{@link Segment#EXPIRE_SCAN_LIMIT}项，避免单个map长时间占用共用的清理线程
    *
-   * @param <K> 泛型
-   * @param <V> 泛型
-   * @author wubo
+   * @return 是否还有未清理的到期键值
    */
-  public interface ExpiredListener<K, V> {
+  private boolean expiredClean() {
+    long now = CoarseClock.now();
+    boolean remaining = false;
+    for (Segment<K, V> segment : segments) {
+      remaining |= expire(segment, now);
+    }
+    return remaining;
+  }
 
-    /**
-     * 失效处理
-     *
-     * @param key 建
-     * @param value 值
+  private boolean expire(Segment<K, V> segment, long now) {
+    List<ExpiringValue<K, V>> expired = new ArrayList<>();
+    int scanned;
+    long start = stats.ticker();
+    try {
+      segment.writeLock.lock();
+      scanned = segment.expire(now, expired, hasListener());
+    } finally {
+      segment.writeLock.unlock();
+    }
+    stats.recordSweep(stats.ticker() - start, scanned);
+    if (!expired.isEmpty() && hasListener()) {
+      notifyListener(expired);
+    }
+    return scanned >= Segment.EXPIRE_SCAN_LIMIT && segment.nextDeadline < now;
+  }
+
+  private boolean hasListener() {
+    return asyncExpiredListeners != null && !asyncExpiredListeners.isEmpty();
+  }
+
+  /**
+   * 在监听线程池中通知，避免监听耗时阻塞该段的读写和其它map的清理
+   */
+  private void notifyListener(List<ExpiringValue<K, V>> expired) {
+    Runnable task = () -> {
+      for (ExpiringValue<K, V> value : expired) {
+        for (ExpiredListener<K, V> listener : asyncExpiredListeners) {
+          try {
+            listener.expire(value.key, value.value);
+          } catch (Exception e) {
+            log.warn("ExpiringMap expired listener error", e);
+          }
+        }
+      }
+    };
+    Executor executor = listenerExecutor;
+    if (executor == null) {
+      executor = ListenerHolder.EXECUTOR;
+    }
+    try {
+      executor.execute(task);
+    } catch (RejectedExecutionException e) {
+      // 监听线程池饱和时在清理线程执行，限制积压
+      task.run();
+    }
+  }
+
+  private void runScheduleCleanPolicy() {
+    cleanTask = new CleanTask(this);
+    cleanTask.future = CleanScheduler.EXECUTOR.scheduleWithFixedDelay(cleanTask, scheduleDelay,
+        scheduleDelay, TimeUnit.SECONDS);
+  }
+
+  private void runAsyncClean() {
+    if (!cleanPending.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      CleanScheduler.EXECUTOR.execute(() -> {
+        boolean remaining = false;
+        try {
+          remaining = expiredClean();
+        } catch (Exception e) {
+          log.warn("ExpiringMap clean error", e);
+        } finally {
+          cleanPending.set(false);
+        }
+        if (remaining && !closed) {
+          // 重新排队，让其它map的清理先执行
+          runAsyncClean();
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      cleanPending.set(false);
+    }
+  }
+
+  /**
+   * 关闭，取消定时清理并清空数据
+   * <p>
+   * 不再使用的map即使未关闭，也会在被回收后自动取消清理任务
+   */
+  @Override
+  public void close() {
+    closed = true;
+    if (cleanTask != null) {
+      cleanTask.cancel();
+    }
+    clear();
+  }
+
+  /**
+   * 失效监听
+   * <p>
+   * 在监听线程池中执行，默认所有map共用一个有界线程池，同一map的不同批次可能并发通知；
+   * 耗时的监听应通过{@link Builder#listenerExecutor(Executor)}指定独立的线程池
+   *
+   * @param <K> 泛型
+   * @param <V> 泛型
+   * @author wubo
+   */
+  public interface ExpiredListener<K, V> {
+
+    /**
+     * 失效处理
+     *
+     * @param key 建
+     * @param value 值
      */
     void expire(K key, V value);
   }
 
   /**
-   * 构建器
+   * 权重计算
    *
    * @param <K> 泛型
    * @param <V> 泛型
    * @author wubo
    */
-  public static final class Builder<K, V> {
+  @FunctionalInterface
+  public interface Weigher<K, V> {
 
-    private List<ExpiredListener<K, V>> asyncExpiredListeners;
-    private int maxSize = Integer.MAX_VALUE;
-    private long duration = -1;
-    private TimeUnit timeUnit = TimeUnit.SECONDS;
-    private ExpiringPolicy expiringPolicy = ExpiringPolicy.CREATED;
-    private CleanPolicy cleanPolicy = CleanPolicy.ACCUMULATE;
-    private int scheduleDelay = 60;
-    private int accumulateThreshold = 50;
+    /**
+     * 计算键值的权重
+     *
+     * @param key 键
+     * @param value 值
+     * @return 权重，不能为负数
+     */
+    int weigh(K key, V value);
+  }
 
-    private Builder() {}
+  /**
+   * 值的编解码，用于堆外存储
+   *
+   * @param <V> 泛型
+   * @author wubo
+   */
+  public interface ValueCodec<V> {
 
     /**
-     * 设置最大数量
+     * 编码
      *
-     * @param maxSize 最大数量
-     * @return 构造器
+     * @param value 值，不为null
+     * @return 字节
      */
-    public Builder<K, V> maxSize(int maxSize) {
-      if (maxSize <= 0) {
-        throw new IllegalArgumentException("maxSize should be positive");
+    byte[] encode(V value);
+
+    /**
+     * 解码
+     *
+     * @param bytes 字节
+     * @return 值
+     */
+    V decode(byte[] bytes);
+  }
+
+  /**
+   * 加载器
+   *
+   * @param <K> 泛型
+   * @param <V> 泛型
+   * @author wubo
+   */
+  @FunctionalInterface
+  public interface Loader<K, V> {
+
+    /**
+     * 加载单个键的值
+     *
+     * @param key 键
+     * @return 值，为null时不缓存
+     * @throws Exception 加载异常
+     */
+    V load(K key) throws Exception;
+
+    /**
+     * 批量加载，默认逐个调用load，可覆盖为一次批量查询
+     *
+     * @param keys 键
+     * @return 加载到的键值，缺失的键不缓存
+     * @throws Exception 加载异常
+     */
+    default Map<K, V> loadAll(Set<? extends K> keys) throws Exception {
+      Map<K, V> result = new HashMap<>(keys.size());
+      for (K key : keys) {
+        V value = load(key);
+        if (value != null) {
+          result.put(key, value);
+        }
+      }
+      return result;
+    }
+  }
+
+  /**
+   * 统计快照
+   *
+   * @author wubo
+   */
+  public static final class Stats {
+
+    private final long hitCount;
+    private final long missCount;
+    private final long loadSuccessCount;
+    private final long loadFailureCount;
+    private final long totalLoadTime;
+    private final long putCount;
+    private final long[] removalCounts;
+    private final long sweepCount;
+    private final long totalSweepTime;
+    private final long sweepScannedCount;
+
+    Stats(long hitCount, long missCount, long loadSuccessCount, long loadFailureCount,
+        long totalLoadTime, long putCount, long[] removalCounts, long sweepCount,
+        long totalSweepTime, long sweepScannedCount) {
+      this.hitCount = hitCount;
+      this.missCount = missCount;
+      this.loadSuccessCount = loadSuccessCount;
+      this.loadFailureCount = loadFailureCount;
+      this.totalLoadTime = totalLoadTime;
+      this.putCount = putCount;
+      this.removalCounts = removalCounts;
+      this.sweepCount = sweepCount;
+      this.totalSweepTime = totalSweepTime;
+      this.sweepScannedCount = sweepScannedCount;
+    }
+
+    public long hitCount() {
+      return hitCount;
+    }
+
+    public long missCount() {
+      return missCount;
+    }
+
+    public long requestCount() {
+      return hitCount + missCount;
+    }
+
+    /**
+     * 命中率，没有请求时为1
+     *
+     * @return 命中率
+     */
+    public double hitRate() {
+      long requestCount = requestCount();
+      return requestCount == 0 ? 1.0 : (double) hitCount / requestCount;
+    }
+
+    public long loadSuccessCount() {
+      return loadSuccessCount;
+    }
+
+    public long loadFailureCount() {
+      return loadFailureCount;
+    }
+
+    /**
+     * 加载总耗时
+     *
+     * @return 纳秒
+     */
+    public long totalLoadTime() {
+      return totalLoadTime;
+    }
+
+    /**
+     * 平均加载耗时
+     *
+     * @return 纳秒
+     */
+    public double averageLoadPenalty() {
+      long loadCount = loadSuccessCount + loadFailureCount;
+      return loadCount == 0 ? 0.0 : (double) totalLoadTime / loadCount;
+    }
+
+    public long putCount() {
+      return putCount;
+    }
+
+    /**
+     * 按原因统计的移除数量
+     *
+     * @param cause 原因
+     * @return 数量
+     */
+    public long removalCount(RemovalCause cause) {
+      return removalCounts[cause.ordinal()];
+    }
+
+    /**
+     * 超出容量淘汰的数量
+     *
+     * @return 数量
+     */
+    public long evictionCount() {
+      return removalCount(RemovalCause.SIZE);
+    }
+
+    /**
+     * 失效移除的数量
+     *
+     * @return 数量
+     */
+    public long expirationCount() {
+      return removalCount(RemovalCause.EXPIRED);
+    }
+
+    public long sweepCount() {
+      return sweepCount;
+    }
+
+    /**
+     * 清理持有写锁的总耗时
+     *
+     * @return 纳秒
+     */
+    public long totalSweepTime() {
+      return totalSweepTime;
+    }
+
+    /**
+     * 清理时检查的索引项总数
+     *
+     * @return 数量
+     */
+    public long sweepScannedCount() {
+      return sweepScannedCount;
+    }
+
+    /**
+     * 转换为扁平的指标，便于导出到监控系统
+     *
+     * @return 指标名称和值
+     */
+    public Map<String, Number> toMap() {
+      Map<String, Number> map = new LinkedHashMap<>();
+      map.put("hit.count", hitCount);
+      map.put("miss.count", missCount);
+      map.put("hit.rate", hitRate());
+      map.put("load.success.count", loadSuccessCount);
+      map.put("load.failure.count", loadFailureCount);
+      map.put("load.time.total", totalLoadTime);
+      map.put("put.count", putCount);
+      for (RemovalCause cause : RemovalCause.values()) {
+        map.put("removal." + cause.name().toLowerCase() + ".count", removalCount(cause));
+      }
+      map.put("sweep.count", sweepCount);
+      map.put("sweep.time.total", totalSweepTime);
+      map.put("sweep.scanned.count", sweepScannedCount);
+      return map;
+    }
+
+    @Override
+    public String toString() {
+      return "Stats" + toMap();
+    }
+  }
+
+  /**
+   * 统计计数，默认为空实现，不产生任何开销
+   */
+  static class StatsCounter {
+
+    static final StatsCounter DISABLED = new StatsCounter();
+
+    void recordHit() {}
+
+    void recordMiss() {}
+
+    void recordLoadSuccess(long loadTime) {}
+
+    void recordLoadFailure(long loadTime) {}
+
+    void recordPut() {}
+
+    void recordRemoval(RemovalCause cause) {}
+
+    void recordRemoval(RemovalCause cause, int count) {}
+
+    void recordSweep(long sweepTime, int scanned) {}
+
+    /**
+     * 计时起点，未开启统计时不读取时钟
+     *
+     * @return 纳秒
+     */
+    long ticker() {
+      return 0;
+    }
+
+    Stats snapshot() {
+      return new Stats(0, 0, 0, 0, 0, 0, new long[RemovalCause.values().length], 0, 0, 0);
+    }
+  }
+
+  /**
+   * 基于LongAdder的统计计数，多线程写入时分散竞争
+   */
+  static final class ConcurrentStatsCounter extends StatsCounter {
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder loadSuccessCount = new LongAdder();
+    private final LongAdder loadFailureCount = new LongAdder();
+    private final LongAdder totalLoadTime = new LongAdder();
+    private final LongAdder putCount = new LongAdder();
+    private final LongAdder[] removalCounts;
+    private final LongAdder sweepCount = new LongAdder();
+    private final LongAdder totalSweepTime = new LongAdder();
+    private final LongAdder sweepScannedCount = new LongAdder();
+
+    ConcurrentStatsCounter() {
+      removalCounts = new LongAdder[RemovalCause.values().length];
+      for (int i = 0; i < removalCounts.length; i++) {
+        removalCounts[i] = new LongAdder();
+      }
+    }
+
+    @Override
+    void recordHit() {
+      hitCount.increment();
+    }
+
+    @Override
+    void recordMiss() {
+      missCount.increment();
+    }
+
+    @Override
+    void recordLoadSuccess(long loadTime) {
+      loadSuccessCount.increment();
+      totalLoadTime.add(loadTime);
+    }
+
+    @Override
+    void recordLoadFailure(long loadTime) {
+      loadFailureCount.increment();
+      totalLoadTime.add(loadTime);
+    }
+
+    @Override
+    void recordPut() {
+      putCount.increment();
+    }
+
+    @Override
+    void recordRemoval(RemovalCause cause) {
+      removalCounts[cause.ordinal()].increment();
+    }
+
+    @Override
+    void recordRemoval(RemovalCause cause, int count) {
+      if (count > 0) {
+        removalCounts[cause.ordinal()].add(count);
+      }
+    }
+
+    @Override
+    void recordSweep(long sweepTime, int scanned) {
+      sweepCount.increment();
+      totalSweepTime.add(sweepTime);
+      sweepScannedCount.add(scanned);
+    }
+
+    @Override
+    long ticker() {
+      return System.nanoTime();
+    }
+
+    @Override
+    Stats snapshot() {
+      long[] removals = new long[removalCounts.length];
+      for (int i = 0; i < removals.length; i++) {
+        removals[i] = removalCounts[i].sum();
+      }
+      return new Stats(hitCount.sum(), missCount.sum(), loadSuccessCount.sum(),
+          loadFailureCount.sum(), totalLoadTime.sum(), putCount.sum(), removals,
+          sweepCount.sum(), totalSweepTime.sum(), sweepScannedCount.sum());
+    }
+  }
+
+  /**
+   * 快照读取，按窗口分段映射文件，支持超过2G的快照
+   */
+  private static final class SnapshotReader {
+
+    private static final long WINDOW = 256L * 1024 * 1024;
+
+    private final FileChannel channel;
+    private final long size;
+    private long base;
+    private MappedByteBuffer buffer;
+
+    SnapshotReader(FileChannel channel) throws IOException {
+      this.channel = channel;
+      this.size = channel.size();
+      this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(WINDOW, size));
+    }
+
+    int readInt() throws IOException {
+      ensure(Integer.BYTES);
+      return buffer.getInt();
+    }
+
+    long readLong() throws IOException {
+      ensure(Long.BYTES);
+      return buffer.getLong();
+    }
+
+    byte[] readBytes(int length) throws IOException {
+      if (length < 0) {
+        throw new IOException("corrupted snapshot");
+      }
+      ensure(length);
+      byte[] bytes = new byte[length];
+      buffer.get(bytes);
+      return bytes;
+    }
+
+    private void ensure(int length) throws IOException {
+      if (buffer.remaining() >= length) {
+        return;
+      }
+      base += buffer.position();
+      long remaining = size - base;
+      if (remaining < length) {
+        throw new IOException("corrupted snapshot");
+      }
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, base,
+          Math.min(Math.max(WINDOW, length), remaining));
+    }
+  }
+
+  /**
+   * 清理线程，所有ExpiringMap共用一个线程，只移除到期键值，失效监听在监听线程池中执行
+   */
+  private static final class CleanScheduler {
+
+    static final ScheduledExecutorService EXECUTOR;
+
+    static {
+      ScheduledThreadPoolExecutor executor = (ScheduledThreadPoolExecutor) ThreadUtils
+          .newSecheduledExecutor(1, "ExpiringMap-Clean-Pool-%d");
+      // 取消的任务立即移出队列，大量map关闭后不会残留
+      executor.setRemoveOnCancelPolicy(true);
+      EXECUTOR = executor;
+    }
+
+    private CleanScheduler() {}
+  }
+
+  /**
+   * 定时清理任务，只弱引用map，map被回收或关闭后自行取消
+   */
+  static final class CleanTask implements Runnable {
+
+    private final WeakReference<ExpiringMap<?, ?>> ref;
+    private volatile ScheduledFuture<?> future;
+
+    CleanTask(ExpiringMap<?, ?> map) {
+      this.ref = new WeakReference<>(map);
+    }
+
+    @Override
+    public void run() {
+      ExpiringMap<?, ?> map = ref.get();
+      if (map == null || map.closed) {
+        cancel();
+        return;
+      }
+      try {
+        if (map.expiredClean()) {
+          map.runAsyncClean();
+        }
+      } catch (Exception e) {
+        // 异常会终止周期任务，这里只记录
+        log.warn("ExpiringMap clean error", e);
+      }
+    }
+
+    void cancel() {
+      ScheduledFuture<?> f = future;
+      if (f != null) {
+        f.cancel(false);
+      }
+    }
+  }
+
+  /**
+   * 失效监听线程池，未指定listenerExecutor的ExpiringMap共用
+   */
+  private static final class ListenerHolder {
+
+    static final ThreadPoolExecutor EXECUTOR;
+
+    static {
+      int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+      EXECUTOR = ThreadUtils.newThreadPool(threads, threads, 60, 1024,
+          "ExpiringMap-Listener-Pool-%d");
+      EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
+    private ListenerHolder() {}
+  }
+
+  /**
+   * 刷新线程池，所有ExpiringMap共用
+   */
+  private static final class RefreshHolder {
+
+    static final ThreadPoolExecutor EXECUTOR;
+
+    static {
+      int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+      EXECUTOR = ThreadUtils.newThreadPool(threads, threads, 60, 1024,
+          "ExpiringMap-Refresh-Pool-%d");
+      EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
+    private RefreshHolder() {}
+  }
+
+  /**
+   * 构建器
+   *
+   * @param <K> 泛型
+   * @param <V> 泛型
+   * @author wubo
+   */
+  public static final class Builder<K, V> {
+
+    private List<ExpiredListener<K, V>> asyncExpiredListeners;
+    private Executor listenerExecutor;
+    private int maxSize = Integer.MAX_VALUE;
+    private long duration = -1;
+    private TimeUnit timeUnit = TimeUnit.SECONDS;
+    private ExpiringPolicy expiringPolicy = ExpiringPolicy.CREATED;
+    private CleanPolicy cleanPolicy = CleanPolicy.ACCUMULATE;
+    private int scheduleDelay = 60;
+    private int accumulateThreshold = 50;
+    private StoreMode storeMode = StoreMode.SORTED;
+    private int concurrencyLevel = 16;
+    private EvictionPolicy evictionPolicy = EvictionPolicy.LRU;
+    private Weigher<? super K, ? super V> weigher;
+    private Loader<K, V> loader;
+    private long refreshAheadMillis;
+    private boolean recordStats;
+    private ValueCodec<V> valueCodec;
+    private long offHeapCapacity;
+    private int offHeapBlockSize = 256;
+
+    private Builder() {}
+
+    /**
+     * 设置最大数量，设置了weigher时为最大总权重
+     * <p>
+     * STRIPED存储时每段各自限制为maxSize/段数（向上取整）
+     *
+     * @param maxSize 最大数量
+     * @return 构造器
+     */
+    public Builder<K, V> maxSize(int maxSize) {
+      if (maxSize <= 0) {
+        throw new IllegalArgumentException("maxSize should be positive");
+      }
+      this.maxSize = maxSize;
+      return this;
+    }
+
+    /**
+     * 增加单个异步失效监听
+     *
+     * @param listener 监听
+     * @return 构造器
+     */
+    public Builder<K, V> asyncExpiredListeners(ExpiredListener<K, V> listener) {
+      Checks.notNull(listener, "listener can not be null");
+      if (asyncExpiredListeners == null) {
+        asyncExpiredListeners = new ArrayList<>();
+      }
+      asyncExpiredListeners.add(listener);
+      return this;
+    }
+
+    /**
+     * 增加异步失效监听列表
+     *
+     * @param listeners 监听
+     * @return 构造器
+     */
+    public Builder<K, V> asyncExpiredListeners(List<ExpiredListener<K, V>> listeners) {
+      Checks.notNull(listeners, "listeners can not be null");
+      asyncExpiredListeners = listeners;
+      return this;
+    }
+
+    /**
+     * 设置执行失效监听的线程池，未设置时使用所有map共用的监听线程池
+     *
+     * @param listenerExecutor 线程池
+     * @return 构造器
+     */
+    public Builder<K, V> listenerExecutor(Executor listenerExecutor) {
+      Checks.notNull(listenerExecutor, "listenerExecutor can not be null");
+      this.listenerExecutor = listenerExecutor;
+      return this;
+    }
+
+    /**
+     * 默认有效期
+     *
+     * @param duration 有效期限
+     * @param timeUnit 时间单位
+     * @return 构造器
+     */
+    public Builder<K, V> expiration(long duration, TimeUnit timeUnit) {
+      if (duration <= 0) {
+        throw new IllegalArgumentException("duration should be positive");
+      }
+      Checks.notNull(timeUnit, "timeUnit can not be null");
+      this.duration = duration;
+      this.timeUnit = timeUnit;
+      return this;
+    }
+
+    /**
+     * 设置失效策略
+     * 
+     * @param expiringPolicy 失效策略
+     * @return 构造器
+     */
+    public Builder<K, V> expiringPolicy(ExpiringPolicy expiringPolicy) {
+      Checks.notNull(expiringPolicy, "expiringPolicy can not be null");
+      this.expiringPolicy = expiringPolicy;
+      return this;
+    }
+
+    /**
+     * 设置失效清理策略
+     * 
+     * @param cleanPolicy 失效清理策略
+     * @return 构造器
+     */
+    public Builder<K, V> cleanPolicy(CleanPolicy cleanPolicy) {
+      Checks.notNull(cleanPolicy, "cleanPolicy can not be null");
+      this.cleanPolicy = cleanPolicy;
+      return this;
+    }
+
+    /**
+     * 设置定时清理的延迟
+     * 
+     * @param scheduleDelay 延迟
+     * @return 构造器
+     */
+    public Builder<K, V> scheduleDelay(int scheduleDelay) {
+      if (scheduleDelay <= 0) {
+        throw new IllegalArgumentException("scheduleDelay should be positive");
+      }
+      this.scheduleDelay = scheduleDelay;
+      return this;
+    }
+
+    /**
+     * 设置累积阈值
+     *
+     * @param accumulateThreshold 阈值
+     * @return 构造器
+     */
+    public Builder<K, V> accumulateThreshold(int accumulateThreshold) {
+      if (accumulateThreshold <= 0) {
+        throw new IllegalArgumentException("accumulateThreshold should be positive");
+      }
+      this.accumulateThreshold = accumulateThreshold;
+      return this;
+    }
+
+    /**
+     * 设置存储方式
+     * 
+     * @param storeMode 存储方式
+     * @return 构造器
+     */
+    public Builder<K, V> storeMode(StoreMode storeMode) {
+      Checks.notNull(storeMode, "storeMode can not be null");
+      this.storeMode = storeMode;
+      return this;
+    }
+
+    /**
+     * 设置并发级别，STRIPED存储时的分段数，会向上取整为2的幂
+     * 
+     * @param concurrencyLevel 并发级别
+     * @return 构造器
+     */
+    public Builder<K, V> concurrencyLevel(int concurrencyLevel) {
+      if (concurrencyLevel <= 0) {
+        throw new IllegalArgumentException("concurrencyLevel should be positive");
+      }
+      this.concurrencyLevel = concurrencyLevel;
+      return this;
+    }
+
+    /**
+     * 设置超出maxSize时的淘汰策略，默认LRU
+     *
+     * @param evictionPolicy 淘汰策略
+     * @return 构造器
+     */
+    public Builder<K, V> evictionPolicy(EvictionPolicy evictionPolicy) {
+      Checks.notNull(evictionPolicy, "evictionPolicy can not be null");
+      this.evictionPolicy = evictionPolicy;
+      return this;
+    }
+
+    /**
+     * 设置权重计算，设置后maxSize限制的是总权重而不是数量
+     *
+     * @param weigher 权重计算
+     * @return 构造器
+     */
+    public Builder<K, V> weigher(Weigher<? super K, ? super V> weigher) {
+      Checks.notNull(weigher, "weigher can not be null");
+      this.weigher = weigher;
+      return this;
+    }
+
+    /**
+     * 设置加载器，get未命中时加载并缓存
+     *
+     * @param loader 加载器
+     * @return 构造器
+     */
+    public Builder<K, V> loader(Loader<K, V> loader) {
+      Checks.notNull(loader, "loader can not be null");
+      this.loader = loader;
+      return this;
+    }
+
+    /**
+     * 设置提前刷新时间，读到剩余有效期小于该时间的键值时异步重新加载，读取不等待
+     * <p>
+     * 需要设置loader，适合CREATED失效策略
+     *
+     * @param refreshAhead 提前刷新时间
+     * @param timeUnit 时间单位
+     * @return 构造器
+     */
+    public Builder<K, V> refreshAhead(long refreshAhead, TimeUnit timeUnit) {
+      Checks.notNull(timeUnit, "timeUnit can not be null");
+      if (refreshAhead <= 0) {
+        throw new IllegalArgumentException("refreshAhead should be positive");
+      }
+      this.refreshAheadMillis = timeUnit.toMillis(refreshAhead);
+      return this;
+    }
+
+    /**
+     * 值编码后存放在堆外，堆上只保留键和索引
+     * <p>
+     * 容量按段平分，空间不足时按淘汰策略移除键值，maxSize和失效规则照常生效
+     *
+     * @param valueCodec 值编码
+     * @param capacity 堆外总容量，字节
+     * @return 构造器
+     */
+    public Builder<K, V> offHeap(ValueCodec<V> valueCodec, long capacity) {
+      Checks.notNull(valueCodec, "valueCodec can not be null");
+      if (capacity <= 0) {
+        throw new IllegalArgumentException("off-heap capacity should be positive");
+      }
+      this.valueCodec = valueCodec;
+      this.offHeapCapacity = capacity;
+      return this;
+    }
+
+    /**
+     * 设置堆外块大小，值按块存储，默认256字节
+     *
+     * @param blockSize 块大小
+     * @return 构造器
+     */
+    public Builder<K, V> offHeapBlockSize(int blockSize) {
+      if (blockSize <= 0) {
+        throw new IllegalArgumentException("blockSize should be positive");
+      }
+      this.offHeapBlockSize = blockSize;
+      return this;
+    }
+
+    /**
+     * 开启统计，计数使用LongAdder，可在生产环境常开
+     *
+     * @return 构造器
+     */
+    public Builder<K, V> recordStats() {
+      this.recordStats = true;
+      return this;
+    }
+
+    /**
+     * 构造ExpiringMap
+     *
+     * @return ExpiringMap
+     */
+    public ExpiringMap<K, V> build() {
+      if (refreshAheadMillis > 0 && loader == null) {
+        throw new IllegalStateException("refreshAhead requires a loader");
+      }
+      return new ExpiringMap<>(this);
+    }
+  }
+
+  /**
+   * 分段存储，每段持有独立的读写锁
+   * <p>
+   * 每段维护一个按失效时间排序的索引，清理时只访问已到期的键值
+   * <p>
+   * 限制容量时读操作只把访问记录写入缓冲，由持有写锁的线程批量交给淘汰策略，读不需要写锁
+   * 
+   * @param <K> 泛型
+   * @param <V> 泛型
+   */
+  static final class Segment<K, V> {
+
+    /**
+     * 读缓冲达到该数量时尝试回放
+     */
+    static final int READ_BUFFER_DRAIN_THRESHOLD = 32;
+
+    /**
+     * 读缓冲上限，超出后丢弃访问记录
+     */
+    static final int READ_BUFFER_MAX = 128;
+
+    /**
+     * 统计未过期数量时最多检查的失效索引项
+     */
+    static final int LIVE_COUNT_SCAN_LIMIT = 1024;
+
+    /**
+     * 每次清理每段最多检查的失效索引项
+     */
+    static final int EXPIRE_SCAN_LIMIT = 4096;
+
+    /**
+     * 数据，修改需持有写锁，视图可无锁弱一致地遍历
+     */
+    final ConcurrentMap<K, ExpiringValue<K, V>> data;
+    final Lock readLock;
+    final Lock writeLock;
+
+    /**
+     * 键值数量，包含已过期但未清理的
+     */
+    volatile int count;
+
+    /**
+     * 失效索引中最早的deadline，没有时为Long.MAX_VALUE
+     */
+    volatile long nextDeadline = Long.MAX_VALUE;
+
+    /**
+     * 失效索引，按deadline升序，修改需持有写锁，遍历需持有读锁
+     */
+    final TreeSet<ExpiringValue<K, V>> expiryIndex;
+
+    /**
+     * 索引序号，区分deadline相同的键值
+     */
+    long indexOrder;
+
+    /**
+     * 淘汰策略，为null时不限制容量
+     */
+    final Eviction<K, V> eviction;
+    final Weigher<? super K, ? super V> weigher;
+    final long maxWeight;
+    final StatsCounter stats;
+
+    /**
+     * 堆外存储，为null时值在堆上
+     */
+    final OffHeapStore<V> store;
+
+    /**
+     * 当前总权重，需持有写锁访问
+     */
+    long weight;
+
+    final Queue<ExpiringValue<K, V>> readBuffer;
+    final AtomicInteger readBufferSize;
+
+    Segment(StoreMode storeMode, long maxWeight, Eviction<K, V> eviction,
+        Weigher<? super K, ? super V> weigher, StatsCounter stats, OffHeapStore<V> store) {
+      if (storeMode == StoreMode.SORTED) {
+        this.data = new ConcurrentSkipListMap<>();
+      } else {
+        this.data = new ConcurrentHashMap<>();
+      }
+      ReentrantReadWriteLock readWriteLock = new ReentrantReadWriteLock();
+      this.readLock = readWriteLock.readLock();
+      this.writeLock = readWriteLock.writeLock();
+      this.expiryIndex = new TreeSet<>(ExpiringValue::compareDeadline);
+      this.maxWeight = maxWeight;
+      this.eviction = eviction;
+      this.weigher = weigher;
+      this.stats = stats;
+      this.store = store;
+      if (eviction != null) {
+        this.readBuffer = new ConcurrentLinkedQueue<>();
+        this.readBufferSize = new AtomicInteger();
+      } else {
+        this.readBuffer = null;
+        this.readBufferSize = null;
+      }
+    }
+
+    /**
+     * 写入键值，需持有写锁
+     *
+     * @param value 包装值
+     * @return 被替换的包装值
+     */
+    ExpiringValue<K, V> put(ExpiringValue<K, V> value) {
+      if (weigher != null) {
+        value.weight = weigher.weigh(value.key, value.value);
+        if (value.weight < 0) {
+          throw new IllegalArgumentException("weight can not be negative");
+        }
+      }
+      if (store != null && value.value != null) {
+        offload(value);
+      }
+      ExpiringValue<K, V> preValue = data.put(value.key, value);
+      if (preValue != null) {
+        unlink(preValue, true);
+        stats.recordRemoval(preValue.isExpired() ? RemovalCause.EXPIRED : RemovalCause.REPLACED);
+      }
+      link(value);
+      updateNextDeadline();
+      stats.recordPut();
+      return preValue;
+    }
+
+    /**
+     * 删除键值，需持有写锁
+     *
+     * @param key 键
+     * @return 被删除的包装值
+     */
+    ExpiringValue<K, V> remove(Object key) {
+      ExpiringValue<K, V> value = data.remove(key);
+      if (value != null) {
+        unlink(value, true);
+        updateNextDeadline();
+        stats.recordRemoval(RemovalCause.EXPLICIT);
+      }
+      return value;
+    }
+
+    /**
+     * 清空，需持有写锁
+     */
+    void clear() {
+      stats.recordRemoval(RemovalCause.EXPLICIT, count);
+      if (store != null) {
+        for (ExpiringValue<K, V> value : data.values()) {
+          value.address = OffHeapStore.NULL;
+        }
+        store.clear();
+      }
+      data.clear();
+      expiryIndex.clear();
+      weight = 0;
+      count = 0;
+      nextDeadline = Long.MAX_VALUE;
+      if (eviction != null) {
+        while (readBuffer.poll() != null) {
+          readBufferSize.decrementAndGet();
+        }
+        eviction.clear();
+      }
+    }
+
+    /**
+     * 记录读访问，需持有读锁
+     *
+     * @param value 包装值
+     */
+    void recordRead(ExpiringValue<K, V> value) {
+      if (eviction == null) {
+        return;
+      }
+      if (readBufferSize.incrementAndGet() <= READ_BUFFER_MAX) {
+        readBuffer.offer(value);
+      } else {
+        readBufferSize.decrementAndGet();
+      }
+    }
+
+    /**
+     * 读操作释放读锁后调用，缓冲较多时尝试回放
+     */
+    void afterRead() {
+      if (eviction != null && readBufferSize.get() >= READ_BUFFER_DRAIN_THRESHOLD
+          && writeLock.tryLock()) {
+        try {
+          drainReadBuffer();
+        } finally {
+          writeLock.unlock();
+        }
+      }
+    }
+
+    /**
+     * 超出容量时按淘汰策略移除键值，需持有写锁
+     */
+    void evictIfNecessary() {
+      if (eviction == null) {
+        return;
+      }
+      drainReadBuffer();
+      while (weight > maxWeight) {
+        if (!evictOne()) {
+          return;
+        }
+      }
+    }
+
+    /**
+     * 读取值，需持有读锁或写锁
+     *
+     * @param value 包装值
+     * @return 值
+     */
+    V valueOf(ExpiringValue<K, V> value) {
+      if (value.address == OffHeapStore.NULL) {
+        return value.value;
+      }
+      return store.read(value.address);
+    }
+
+    /**
+     * 未持有锁时读取值，值已被移除时返回null
+     *
+     * @param value 包装值
+     * @return 值
+     */
+    V readValue(ExpiringValue<K, V> value) {
+      if (store == null) {
+        return value.value;
+      }
+      try {
+        readLock.lock();
+        return valueOf(value);
+      } finally {
+        readLock.unlock();
+      }
+    }
+
+    private boolean evictOne() {
+      ExpiringValue<K, V> victim = eviction.select();
+      if (victim == null) {
+        return false;
+      }
+      data.remove(victim.key);
+      unlink(victim, false);
+      updateNextDeadline();
+      stats.recordRemoval(RemovalCause.SIZE);
+      return true;
+    }
+
+    /**
+     * 值写入堆外，空间不足时淘汰键值直到放得下
+     */
+    private void offload(ExpiringValue<K, V> value) {
+      byte[] bytes = store.encode(value.value);
+      int address;
+      while ((address = store.write(bytes)) == OffHeapStore.NULL) {
+        drainReadBuffer();
+        if (!evictOne()) {
+          throw new IllegalStateException("off-heap store is full");
+        }
+      }
+      value.address = address;
+      value.value = null;
+    }
+
+    /**
+     * 移除已过期的键值，需持有写锁
+     * <p>
+     * ACCESSED策略下访问只刷新expireAt而不调整索引，到期时若发现已被刷新则按新时间重新入索引
+     *
+     * @param now 当前时间
+     * @param expired 收集过期的键值
+     * @param keepValues 是否保留堆外值供失效监听使用
+     * @return 检查的索引项数量，最多{@link #EXPIRE_SCAN_LIMIT}
+     */
+    int expire(long now, List<ExpiringValue<K, V>> expired, boolean keepValues) {
+      int scanned = 0;
+      ExpiringValue<K, V> value;
+      while (scanned < EXPIRE_SCAN_LIMIT && (value = expiryIndex.pollFirst()) != null) {
+        scanned++;
+        if (value.deadline >= now) {
+          expiryIndex.add(value);
+          break;
+        }
+        long expireAt = value.expireAt;
+        if (expireAt < now) {
+          value.indexed = false;
+          data.remove(value.key);
+          detach(value, keepValues);
+          expired.add(value);
+        } else {
+          value.deadline = expireAt;
+          expiryIndex.add(value);
+        }
+      }
+      updateNextDeadline();
+      stats.recordRemoval(RemovalCause.EXPIRED, expired.size());
+      return scanned;
+    }
+
+    /**
+     * 未过期的数量，在读锁下从失效索引头部检查到期的键值
+     * <p>
+     * expireAt只会延后，deadline未到的索引项一定未过期，因此只需检查头部；检查数量有上限，
+     * 超出的部分计为未过期，由清理线程移除后修正
+     *
+     * @param now 当前时间
+     * @return 数量
+     */
+    int liveCount(long now) {
+      int expired = 0;
+      int scanned = 0;
+      readLock.lock();
+      try {
+        for (ExpiringValue<K, V> value : expiryIndex) {
+          if (value.deadline >= now || ++scanned > LIVE_COUNT_SCAN_LIMIT) {
+            break;
+          }
+          if (value.expireAt < now) {
+            expired++;
+          }
+        }
+        return Math.max(0, count - expired);
+      } finally {
+        readLock.unlock();
+      }
+    }
+
+    private void updateNextDeadline() {
+      if (expiryIndex.isEmpty()) {
+        nextDeadline = Long.MAX_VALUE;
+      } else {
+        nextDeadline = expiryIndex.first().deadline;
+      }
+    }
+
+    private void drainReadBuffer() {
+      ExpiringValue<K, V> value;
+      while ((value = readBuffer.poll()) != null) {
+        readBufferSize.decrementAndGet();
+        eviction.onAccess(value);
+      }
+    }
+
+    private void link(ExpiringValue<K, V> value) {
+      if (value.expireAt != ExpiringValue.NOT_EXPIRED) {
+        value.deadline = value.expireAt;
+        value.order = indexOrder++;
+        value.indexed = true;
+        expiryIndex.add(value);
+      }
+      weight += value.weight;
+      count++;
+      if (eviction != null) {
+        eviction.onAdd(value);
+      }
+    }
+
+    private void unlink(ExpiringValue<K, V> value, boolean keepValue) {
+      if (value.indexed) {
+        value.indexed = false;
+        expiryIndex.remove(value);
+      }
+      detach(value, keepValue);
+    }
+
+    /**
+     * 移出统计和淘汰结构，释放堆外空间
+     *
+     * @param value 包装值
+     * @param keepValue 释放前是否把堆外值读回堆上，供返回旧值或通知监听
+     */
+    private void detach(ExpiringValue<K, V> value, boolean keepValue) {
+      if (value.address != OffHeapStore.NULL) {
+        if (keepValue) {
+          value.value = store.read(value.address);
+        }
+        store.free(value.address);
+        value.address = OffHeapStore.NULL;
+      }
+      weight -= value.weight;
+      count--;
+      if (eviction != null) {
+        eviction.onRemove(value);
+      }
+    }
+  }
+
+  /**
+   * 淘汰策略，所有方法都需持有段写锁调用
+   *
+   * @param <K> 泛型
+   * @param <V> 泛型
+   */
+  abstract static class Eviction<K, V> {
+
+    static <K, V> Eviction<K, V> of(EvictionPolicy policy, long maxWeight) {
+      switch (policy) {
+        case LFU:
+          return new LfuEviction<>();
+        case TINY_LFU:
+          return new TinyLfuEviction<>(maxWeight);
+        default:
+          return new LruEviction<>();
+      }
+    }
+
+    /**
+     * 加入键值
+     *
+     * @param value 包装值
+     */
+    abstract void onAdd(ExpiringValue<K, V> value);
+
+    /**
+     * 访问键值，键值可能已被移除
+     *
+     * @param value 包装值
+     */
+    abstract void onAccess(ExpiringValue<K, V> value);
+
+    /**
+     * 移除键值
+     *
+     * @param value 包装值
+     */
+    abstract void onRemove(ExpiringValue<K, V> value);
+
+    /**
+     * 选出下一个需要淘汰的键值
+     *
+     * @return 包装值，没有可淘汰的返回null
+     */
+    abstract ExpiringValue<K, V> select();
+
+    /**
+     * 清空
+     */
+    abstract void clear();
+  }
+
+  /**
+   * LRU淘汰
+   *
+   * @param <K> 泛型
+   * @param <V> 泛型
+   */
+  static final class LruEviction<K, V> extends Eviction<K, V> {
+
+    private static final byte IN_QUEUE = 1;
+
+    private final LinkedDeque<K, V> deque = new LinkedDeque<>();
+
+    @Override
+    void onAdd(ExpiringValue<K, V> value) {
+      value.region = IN_QUEUE;
+      deque.addLast(value);
+    }
+
+    @Override
+    void onAccess(ExpiringValue<K, V> value) {
+      if (value.region == IN_QUEUE) {
+        deque.moveToLast(value);
+      }
+    }
+
+    @Override
+    void onRemove(ExpiringValue<K, V> value) {
+      if (value.region == IN_QUEUE) {
+        value.region = 0;
+        deque.unlink(value);
+      }
+    }
+
+    @Override
+    ExpiringValue<K, V> select() {
+      return deque.head;
+    }
+
+    @Override
+    void clear() {
+      deque.clear();
+    }
+  }
+
+  /**
+   * LFU淘汰，按访问次数分桶，桶内按加入顺序排列，各操作均为O(1)
+   *
+   * @param <K> 泛型
+   * @param <V> 泛型
+   */
+  static final class LfuEviction<K, V> extends Eviction<K, V> {
+
+    /**
+     * 访问次数最少的桶
+     */
+    private FrequencyBucket<K, V> head;
+
+    @Override
+    void onAdd(ExpiringValue<K, V> value) {
+      FrequencyBucket<K, V> bucket = head;
+      if (bucket == null || bucket.frequency != 1) {
+        bucket = new FrequencyBucket<>(1);
+        bucket.next = head;
+        if (head != null) {
+          head.prev = bucket;
+        }
+        head = bucket;
+      }
+      bucket.entries.addLast(value);
+      value.bucket = bucket;
+    }
+
+    @Override
+    void onAccess(ExpiringValue<K, V> value) {
+      FrequencyBucket<K, V> bucket = value.bucket;
+      if (bucket == null) {
+        return;
+      }
+      FrequencyBucket<K, V> next = bucket.next;
+      if (next == null || next.frequency != bucket.frequency + 1) {
+        next = new FrequencyBucket<>(bucket.frequency + 1);
+        next.prev = bucket;
+        next.next = bucket.next;
+        if (bucket.next != null) {
+          bucket.next.prev = next;
+        }
+        bucket.next = next;
+      }
+      bucket.entries.unlink(value);
+      next.entries.addLast(value);
+      value.bucket = next;
+      removeIfEmpty(bucket);
+    }
+
+    @Override
+    void onRemove(ExpiringValue<K, V> value) {
+      FrequencyBucket<K, V> bucket = value.bucket;
+      if (bucket != null) {
+        value.bucket = null;
+        bucket.entries.unlink(value);
+        removeIfEmpty(bucket);
+      }
+    }
+
+    @Override
+    ExpiringValue<K, V> select() {
+      if (head == null) {
+        return null;
+      }
+      return head.entries.head;
+    }
+
+    @Override
+    void clear() {
+      head = null;
+    }
+
+    private void removeIfEmpty(FrequencyBucket<K, V> bucket) {
+      if (bucket.entries.head != null) {
+        return;
+      }
+      if (bucket.prev != null) {
+        bucket.prev.next = bucket.next;
+      } else {
+        head = bucket.next;
+      }
+      if (bucket.next != null) {
+        bucket.next.prev = bucket.prev;
+      }
+    }
+  }
+
+  /**
+   * 访问次数相同的键值桶
+   *
+   * @param <K> 泛型
+   * @param <V> 泛型
+   */
+  static final class FrequencyBucket<K, V> {
+
+    final int frequency;
+    final LinkedDeque<K, V> entries = new LinkedDeque<>();
+    FrequencyBucket<K, V> prev;
+    FrequencyBucket<K, V> next;
+
+    FrequencyBucket(int frequency) {
+      this.frequency = frequency;
+    }
+  }
+
+  /**
+   * Window TinyLFU淘汰
+   * <p>
+   * 窗口区占容量的1%，按LRU管理；主区分为试用区和保护区(主区的80%)，试用区被再次访问后晋升保护区。
+   * 窗口区溢出的键值进入试用区成为候选，与试用区最久未访问的键值比较估算频率，频率低的被淘汰
+   *
+   * @param <K> 泛型
+   * @param <V> 泛型
+   */
+  static final class TinyLfuEviction<K, V> extends Eviction<K, V> {
+
+    private static final byte WINDOW = 1;
+    private static final byte PROBATION = 2;
+    private static final byte PROTECTED = 3;
+
+    private final LinkedDeque<K, V> window = new LinkedDeque<>();
+    private final LinkedDeque<K, V> probation = new LinkedDeque<>();
+    private final LinkedDeque<K, V> protect = new LinkedDeque<>();
+    private final FrequencySketch sketch = new FrequencySketch();
+    private final long maxWeight;
+    private final long maxWindowWeight;
+    private final long maxProtectedWeight;
+    private long windowWeight;
+    private long protectedWeight;
+    private long size;
+
+    TinyLfuEviction(long maxWeight) {
+      this.maxWeight = maxWeight;
+      this.maxWindowWeight = Math.max(1, maxWeight / 100);
+      this.maxProtectedWeight = (maxWeight - maxWindowWeight) * 4 / 5;
+    }
+
+    @Override
+    void onAdd(ExpiringValue<K, V> value) {
+      sketch.ensureCapacity(Math.min(++size, maxWeight));
+      sketch.increment(value.key);
+      value.region = WINDOW;
+      window.addLast(value);
+      windowWeight += value.weight;
+    }
+
+    @Override
+    void onAccess(ExpiringValue<K, V> value) {
+      if (value.region == 0) {
+        return;
+      }
+      sketch.increment(value.key);
+      if (value.region == WINDOW) {
+        window.moveToLast(value);
+      } else if (value.region == PROBATION) {
+        probation.unlink(value);
+        value.region = PROTECTED;
+        protect.addLast(value);
+        protectedWeight += value.weight;
+        demoteProtected();
+      } else {
+        protect.moveToLast(value);
+      }
+    }
+
+    @Override
+    void onRemove(ExpiringValue<K, V> value) {
+      if (value.region == WINDOW) {
+        window.unlink(value);
+        windowWeight -= value.weight;
+      } else if (value.region == PROBATION) {
+        probation.unlink(value);
+      } else if (value.region == PROTECTED) {
+        protect.unlink(value);
+        protectedWeight -= value.weight;
+      } else {
+        return;
+      }
+      value.region = 0;
+      size--;
+    }
+
+    @Override
+    ExpiringValue<K, V> select() {
+      ExpiringValue<K, V> candidate = null;
+      while (windowWeight > maxWindowWeight && window.head != null) {
+        ExpiringValue<K, V> value = window.head;
+        window.unlink(value);
+        windowWeight -= value.weight;
+        value.region = PROBATION;
+        probation.addLast(value);
+        if (candidate == null) {
+          candidate = value;
+        }
+      }
+      ExpiringValue<K, V> victim = probation.head;
+      if (victim == null) {
+        return protect.head != null ? protect.head : window.head;
+      }
+      if (candidate == null || candidate == victim) {
+        return victim;
+      }
+      if (sketch.frequency(candidate.key) > sketch.frequency(victim.key)) {
+        return victim;
+      }
+      return candidate;
+    }
+
+    @Override
+    void clear() {
+      window.clear();
+      probation.clear();
+      protect.clear();
+      windowWeight = 0;
+      protectedWeight = 0;
+      size = 0;
+    }
+
+    private void demoteProtected() {
+      while (protectedWeight > maxProtectedWeight && protect.head != null) {
+        ExpiringValue<K, V> value = protect.head;
+        protect.unlink(value);
+        protectedWeight -= value.weight;
+        value.region = PROBATION;
+        probation.addLast(value);
+      }
+    }
+  }
+
+  /**
+   * 基于包装值prev/next指针的双向链表
+   *
+   * @param <K> 泛型
+   * @param <V> 泛型
+   */
+  static final class LinkedDeque<K, V> {
+
+    ExpiringValue<K, V> head;
+    ExpiringValue<K, V> tail;
+
+    void addLast(ExpiringValue<K, V> value) {
+      value.prev = tail;
+      value.next = null;
+      if (tail == null) {
+        head = value;
+      } else {
+        tail.next = value;
+      }
+      tail = value;
+    }
+
+    void unlink(ExpiringValue<K, V> value) {
+      if (value.prev == null) {
+        head = value.next;
+      } else {
+        value.prev.next = value.next;
+      }
+      if (value.next == null) {
+        tail = value.prev;
+      } else {
+        value.next.prev = value.prev;
       }
-      this.maxSize = maxSize;
-      return this;
+      value.prev = null;
+      value.next = null;
     }
 
-    /**
-     * 增加单个异步失效监听
-     *
-     * @param listener 监听
-     * @return 构造器
-     */
-    public Builder<K, V> asyncExpiredListeners(ExpiredListener<K, V> listener) {
-      Checks.notNull(listener, "listener can not be null");
-      if (asyncExpiredListeners == null) {
-        asyncExpiredListeners = new ArrayList<>();
+    void moveToLast(ExpiringValue<K, V> value) {
+      if (value != tail) {
+        unlink(value);
+        addLast(value);
       }
-      asyncExpiredListeners.add(listener);
-      return this;
     }
 
-    /**
-     * 增加异步失效监听列表
-     *
-     * @param listeners 监听
-     * @return 构造器
-     */
-    public Builder<K, V> asyncExpiredListeners(List<ExpiredListener<K, V>> listeners) {
-      Checks.notNull(listeners, "listeners can not be null");
-      asyncExpiredListeners = listeners;
-      return this;
+    void clear() {
+      head = null;
+      tail = null;
     }
+  }
+
+  /**
+   * 访问频率估算，每个键占4个4bit计数器的Count-Min Sketch，计数总量达到采样数后全部减半以淘汰历史热度
+   */
+  static final class FrequencySketch {
+
+    private static final long[] SEED = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L,
+        0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final long ONE_MASK = 0x1111111111111111L;
+    private static final int MAX_TABLE_SIZE = 1 << 24;
+
+    private long[] table;
+    private int tableMask;
+    private int sampleSize;
+    private int size;
 
     /**
-     * 默认有效期
+     * 按预期的键数量扩容，扩容会丢弃已有计数
      *
-     * @param duration 有效期限
-     * @param timeUnit 时间单位
-     * @return 构造器
+     * @param maximumSize 预期的键数量
      */
-    public Builder<K, V> expiration(long duration, TimeUnit timeUnit) {
-      if (duration <= 0) {
-        throw new IllegalArgumentException("duration should be positive");
+    void ensureCapacity(long maximumSize) {
+      int maximum = (int) Math.min(maximumSize, MAX_TABLE_SIZE);
+      if (table != null && table.length >= maximum) {
+        return;
       }
-      Checks.notNull(timeUnit, "timeUnit can not be null");
-      this.duration = duration;
-      this.timeUnit = timeUnit;
-      return this;
+      int length = 8;
+      while (length < maximum) {
+        length <<= 1;
+      }
+      table = new long[length];
+      tableMask = length - 1;
+      sampleSize = 10 * length;
+      size = 0;
     }
 
-    /**
-     * 设置失效策略
-     * 
-     * @param expiringPolicy 失效策略
-     * @return 构造器
-     */
-    public Builder<K, V> expiringPolicy(ExpiringPolicy expiringPolicy) {
-      Checks.notNull(expiringPolicy, "expiringPolicy can not be null");
-      this.expiringPolicy = expiringPolicy;
-      return this;
+    int frequency(Object key) {
+      int hash = spread(key.hashCode());
+      int start = (hash & 3) << 2;
+      int frequency = Integer.MAX_VALUE;
+      for (int i = 0; i < 4; i++) {
+        int index = indexOf(hash, i);
+        int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+        frequency = Math.min(frequency, count);
+      }
+      return frequency;
     }
 
-    /**
-     * 设置失效清理策略
-     * 
-     * @param cleanPolicy 失效清理策略
-     * @return 构造器
-     */
-    public Builder<K, V> cleanPolicy(CleanPolicy cleanPolicy) {
-      Checks.notNull(cleanPolicy, "cleanPolicy can not be null");
-      this.cleanPolicy = cleanPolicy;
-      return this;
+    void increment(Object key) {
+      int hash = spread(key.hashCode());
+      int start = (hash & 3) << 2;
+      boolean added = false;
+      for (int i = 0; i < 4; i++) {
+        added |= incrementAt(indexOf(hash, i), start + i);
+      }
+      if (added && ++size >= sampleSize) {
+        reset();
+      }
     }
 
-    /**
-     * 设置定时清理的延迟
-     * 
-     * @param scheduleDelay 延迟
-     * @return 构造器
-     */
-    public Builder<K, V> scheduleDelay(int scheduleDelay) {
-      if (scheduleDelay <= 0) {
-        throw new IllegalArgumentException("scheduleDelay should be positive");
+    private boolean incrementAt(int index, int counter) {
+      int offset = counter << 2;
+      long mask = 0xfL << offset;
+      if ((table[index] & mask) != mask) {
+        table[index] += 1L << offset;
+        return true;
       }
-      this.scheduleDelay = scheduleDelay;
-      return this;
+      return false;
     }
 
-    /**
-     * 设置累积阈值
-     *
-     * @param accumulateThreshold 阈值
-     * @return 构造器
-     */
-    public Builder<K, V> accumulateThreshold(int accumulateThreshold) {
-      if (accumulateThreshold <= 0) {
-        throw new IllegalArgumentException("accumulateThreshold should be positive");
+    private void reset() {
+      int count = 0;
+      for (int i = 0; i < table.length; i++) {
+        count += Long.bitCount(table[i] & ONE_MASK);
+        table[i] = (table[i] >>> 1) & RESET_MASK;
       }
-      this.accumulateThreshold = accumulateThreshold;
-      return this;
+      size = (size >>> 1) - (count >>> 2);
     }
 
-    /**
-     * 构造ExpiringMap
-     *
-     * @return ExpiringMap
-     */
-    public ExpiringMap<K, V> build() {
-      return new ExpiringMap<>(this);
+    private int indexOf(int item, int i) {
+      long hash = (item + SEED[i]) * SEED[i];
+      hash += hash >>> 32;
+      return ((int) hash) & tableMask;
+    }
+
+    private static int spread(int x) {
+      x = ((x >>> 16) ^ x) * 0x45d9f3b;
+      x = ((x >>> 16) ^ x) * 0x45d9f3b;
+      return (x >>> 16) ^ x;
     }
   }
 
   /**
    * 带失效时间的包装
    *
+   * @param <K> 泛型
    * @param <V> 泛型
    */
-  public static final class ExpiringValue<V> {
+  public static final class ExpiringValue<K, V> {
 
     /**
      * 不过期
@@ -663,26 +2868,74 @@ public class ExpiringMap<K, V> implements ConcurrentMap<K, V>, Serializable {
     private static final long NOT_EXPIRED = -1L;
 
     /**
-     * 值
+     * 键
+     */
+    private final K key;
+
+    /**
+     * 值，存放在堆外时为null
+     */
+    private V value;
+
+    /**
+     * 堆外地址，只在持有段写锁时修改
      */
-    private final V value;
+    private int address = OffHeapStore.NULL;
 
     /**
      * 过期时间
      */
-    private long expireAt;
+    private volatile long expireAt;
 
     /**
      * 期限
      */
     private long duration;
 
+    /**
+     * 在失效索引中的排序时间，只在持有段写锁时修改
+     */
+    private long deadline;
+
+    /**
+     * 在失效索引中的序号
+     */
+    private long order;
+
+    /**
+     * 是否在失效索引中
+     */
+    private boolean indexed;
+
+    /**
+     * 权重
+     */
+    private int weight = 1;
+
+    /**
+     * 淘汰策略所在的区域，0表示不在淘汰策略中
+     */
+    private byte region;
+
+    /**
+     * LFU所在的访问次数桶
+     */
+    private FrequencyBucket<K, V> bucket;
+
+    /**
+     * 淘汰策略链表指针
+     */
+    private ExpiringValue<K, V> prev;
+    private ExpiringValue<K, V> next;
+
     /**
      * 构造不过期的包装
      *
+     * @param key 键
      * @param value 值
      */
-    ExpiringValue(V value) {
+    ExpiringValue(K key, V value) {
+      this.key = key;
       this.value = value;
       this.expireAt = NOT_EXPIRED;
     }
@@ -690,32 +2943,55 @@ public class ExpiringMap<K, V> implements ConcurrentMap<K, V>, Serializable {
     /**
      * 构造带过期时间的包装
      *
+     * @param key 键
      * @param value 值
      * @param duration 期限
      * @param timeUnit 时间单位
      */
-    ExpiringValue(V value, long duration, TimeUnit timeUnit) {
+    ExpiringValue(K key, V value, long duration, TimeUnit timeUnit) {
+      this.key = key;
       this.value = value;
       if (duration > 0) {
         this.duration = timeUnit.toMillis(duration);
-        this.expireAt = System.currentTimeMillis() + this.duration;
+        this.expireAt = CoarseClock.now() + this.duration;
       } else {
         this.expireAt = NOT_EXPIRED;
       }
     }
 
+    /**
+     * 保留失效时间替换值
+     * 
+     * @param newValue 新值
+     * @return 新包装
+     */
+    ExpiringValue<K, V> copyWith(V newValue) {
+      ExpiringValue<K, V> wrapValue = new ExpiringValue<>(key, newValue);
+      wrapValue.duration = duration;
+      wrapValue.expireAt = expireAt;
+      return wrapValue;
+    }
+
     /**
      * 是否过期
      *
      * @return true是过期
      */
     boolean isExpired() {
-      return expireAt != -1 && expireAt < System.currentTimeMillis();
+      return expireAt != -1 && expireAt < CoarseClock.now();
+    }
+
+    private static int compareDeadline(ExpiringValue<?, ?> a, ExpiringValue<?, ?> b) {
+      int cmp = Long.compare(a.deadline, b.deadline);
+      if (cmp == 0) {
+        cmp = Long.compare(a.order, b.order);
+      }
+      return cmp;
     }
 
   }
 
-  static final class MapEntry<K, V> implements Map.Entry<K, V> {
+  static class MapEntry<K, V> implements Map.Entry<K, V> {
 
     K key;
     V value;
@@ -741,6 +3017,243 @@ public class ExpiringMap<K, V> implements ConcurrentMap<K, V>, Serializable {
       this.value = value;
       return pre;
     }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Map.Entry)) {
+        return false;
+      }
+      Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+      return Objects.equals(key, e.getKey()) && Objects.equals(value, e.getValue());
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(key) ^ Objects.hashCode(value);
+    }
+
+    @Override
+    public String toString() {
+      return key + "=" + value;
+    }
+  }
+
+  /**
+   * 视图中的键值对，setValue写回map
+   */
+  final class WriteThroughEntry extends MapEntry<K, V> {
+
+    WriteThroughEntry(K key, V value) {
+      super(key, value);
+    }
+
+    @Override
+    public V setValue(V value) {
+      Checks.notNull(value, "value can not be null");
+      V pre = super.setValue(value);
+      ExpiringMap.this.replace(key, value);
+      return pre;
+    }
+  }
+
+  /**
+   * 按段依次遍历未过期键值的迭代器，各段底层为并发Map，迭代弱一致
+   *
+   * @param <T> 泛型
+   */
+  abstract class AbstractIter<T> implements Iterator<T> {
+
+    private int segmentIndex;
+    private Segment<K, V> segment;
+    private Iterator<ExpiringValue<K, V>> current;
+    private MapEntry<K, V> nextValue;
+    private MapEntry<K, V> lastReturned;
+
+    AbstractIter() {
+      advance();
+    }
+
+    @Override
+    public boolean hasNext() {
+      return nextValue != null;
+    }
+
+    MapEntry<K, V> nextValue() {
+      if (nextValue == null) {
+        throw new NoSuchElementException();
+      }
+      lastReturned = nextValue;
+      advance();
+      return lastReturned;
+    }
+
+    @Override
+    public void remove() {
+      if (lastReturned == null) {
+        throw new IllegalStateException();
+      }
+      ExpiringMap.this.remove(lastReturned.key, lastReturned.value);
+      lastReturned = null;
+    }
+
+    private void advance() {
+      nextValue = null;
+      while (true) {
+        if (current != null) {
+          while (current.hasNext()) {
+            ExpiringValue<K, V> value = current.next();
+            if (!value.isExpired()) {
+              V v = segment.readValue(value);
+              // 堆外值读取前已被移除
+              if (v == null && segment.store != null && segment.data.get(value.key) != value) {
+                continue;
+              }
+              nextValue = new MapEntry<>(value.key, v);
+              return;
+            }
+          }
+        }
+        if (segmentIndex >= segments.length) {
+          return;
+        }
+        segment = segments[segmentIndex++];
+        current = segment.data.values().iterator();
+      }
+    }
+  }
+
+  final class KeyIterator extends AbstractIter<K> {
+
+    @Override
+    public K next() {
+      return nextValue().key;
+    }
+  }
+
+  final class ValueIterator extends AbstractIter<V> {
+
+    @Override
+    public V next() {
+      return nextValue().value;
+    }
+  }
+
+  final class EntryIterator extends AbstractIter<Map.Entry<K, V>> {
+
+    @Override
+    public Map.Entry<K, V> next() {
+      MapEntry<K, V> value = nextValue();
+      return new WriteThroughEntry(value.key, value.value);
+    }
+  }
+
+  final class KeySet extends AbstractSet<K> {
+
+    @Override
+    public Iterator<K> iterator() {
+      return new KeyIterator();
+    }
+
+    @Override
+    public int size() {
+      return ExpiringMap.this.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return ExpiringMap.this.isEmpty();
+    }
+
+    @Override
+    public boolean contains(Object o) {
+      return ExpiringMap.this.containsKey(o);
+    }
+
+    @Override
+    public boolean remove(Object o) {
+      return ExpiringMap.this.remove(o) != null;
+    }
+
+    @Override
+    public void clear() {
+      ExpiringMap.this.clear();
+    }
+  }
+
+  final class Values extends AbstractCollection<V> {
+
+    @Override
+    public Iterator<V> iterator() {
+      return new ValueIterator();
+    }
+
+    @Override
+    public int size() {
+      return ExpiringMap.this.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return ExpiringMap.this.isEmpty();
+    }
+
+    @Override
+    public boolean contains(Object o) {
+      return ExpiringMap.this.containsValue(o);
+    }
+
+    @Override
+    public void clear() {
+      ExpiringMap.this.clear();
+    }
+  }
+
+  final class EntrySet extends AbstractSet<Map.Entry<K, V>> {
+
+    @Override
+    public Iterator<Map.Entry<K, V>> iterator() {
+      return new EntryIterator();
+    }
+
+    @Override
+    public int size() {
+      return ExpiringMap.this.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return ExpiringMap.this.isEmpty();
+    }
+
+    @Override
+    public boolean contains(Object o) {
+      if (!(o instanceof Map.Entry)) {
+        return false;
+      }
+      Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+      Object key = e.getKey();
+      if (key == null) {
+        return false;
+      }
+      Segment<K, V> segment = segmentFor(key);
+      ExpiringValue<K, V> value = segment.data.get(key);
+      return value != null && !value.isExpired()
+          && Objects.equals(segment.readValue(value), e.getValue());
+    }
+
+    @Override
+    public boolean remove(Object o) {
+      if (!(o instanceof Map.Entry)) {
+        return false;
+      }
+      Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+      return e.getKey() != null && ExpiringMap.this.remove(e.getKey(), e.getValue());
+    }
+
+    @Override
+    public void clear() {
+      ExpiringMap.this.clear();
+    }
   }
 
 }
@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2018 justlive1
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package vip.justlive.common.base.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import vip.justlive.common.base.exception.Exceptions;
+
+/**
+ * 并行调用
+ * <p>
+ * 任务在共享的work-stealing线程池中并行执行，共用一个截止时间：任一任务失败或超时立即取消其余任务（中断执行线程），
+ * 全部成功时按提交顺序返回结果。任务执行时通过{@link ForkJoinPool#managedBlock}声明阻塞，
+ * 线程池会补偿线程，下游阻塞调用不会耗尽并行度。任务携带调用线程的{@link ThreadContext}
+ *
+ * @author wubo
+ */
+public final class FanOut {
+
+  private FanOut() {}
+
+  /**
+   * 并行执行并等待全部结果
+   *
+   * @param tasks 任务
+   * @param timeout 截止时间
+   * @param unit 单位
+   * @param <T> 泛型
+   * @return 按任务顺序的结果
+   */
+  public static <T> List<T> invokeAll(List<? extends Callable<? extends T>> tasks, long timeout,
+      TimeUnit unit) {
+    CompletableFuture<List<T>> future = submit(tasks);
+    try {
+      return future.get(timeout, unit);
+    } catch (TimeoutException e) {
+      future.cancel(true);
+      throw Exceptions.wrap(new TimeoutException(
+          String.format("fan-out of %s tasks timed out after %s %s", tasks.size(), timeout,
+              unit)));
+    } catch (InterruptedException e) {
+      future.cancel(true);
+      Thread.currentThread().interrupt();
+      throw Exceptions.wrap(e);
+    } catch (ExecutionException e) {
+      throw Exceptions.wrap(e.getCause());
+    }
+  }
+
+  /**
+   * 并行执行，返回汇总结果
+   * <p>
+   * 取消返回的future会取消全部任务
+   *
+   * @param tasks 任务
+   * @param <T> 泛型
+   * @return 按任务顺序的结果
+   */
+  public static <T> CompletableFuture<List<T>> submit(
+      List<? extends Callable<? extends T>> tasks) {
+    Checks.notNull(tasks, "tasks can not be null");
+    int size = tasks.size();
+    List<Branch<T>> branches = new ArrayList<>(size);
+    CompletableFuture<List<T>> group = new CompletableFuture<>();
+    if (size == 0) {
+      group.complete(new ArrayList<>(0));
+      return group;
+    }
+    AtomicInteger remaining = new AtomicInteger(size);
+    for (Callable<? extends T> task : tasks) {
+      Checks.notNull(task, "task can not be null");
+      branches.add(new Branch<>(ThreadContext.wrap(task), group, remaining, branches));
+    }
+    group.whenComplete((r, e) -> {
+      if (e != null) {
+        for (Branch<T> branch : branches) {
+          branch.cancel();
+        }
+      }
+    });
+    for (Branch<T> branch : branches) {
+      PoolHolder.POOL.execute(branch);
+    }
+    return group;
+  }
+
+  private static class Branch<T> implements Runnable, ForkJoinPool.ManagedBlocker {
+
+    final Callable<? extends T> task;
+    final CompletableFuture<List<T>> group;
+    final AtomicInteger remaining;
+    final List<Branch<T>> siblings;
+    T result;
+    boolean done;
+    boolean cancelled;
+    Thread runner;
+
+    Branch(Callable<? extends T> task, CompletableFuture<List<T>> group, AtomicInteger remaining,
+        List<Branch<T>> siblings) {
+      this.task = task;
+      this.group = group;
+      this.remaining = remaining;
+      this.siblings = siblings;
+    }
+
+    @Override
+    public void run() {
+      synchronized (this) {
+        if (cancelled || group.isDone()) {
+          return;
+        }
+        runner = Thread.currentThread();
+      }
+      try {
+        ForkJoinPool.managedBlock(this);
+        if (remaining.decrementAndGet() == 0) {
+          List<T> results = new ArrayList<>(siblings.size());
+          for (Branch<T> branch : siblings) {
+            results.add(branch.result);
+          }
+          group.complete(results);
+        }
+      } catch (Throwable e) {
+        group.completeExceptionally(unwrap(e));
+      } finally {
+        synchronized (this) {
+          runner = null;
+        }
+        // 清除取消时的中断标记，避免影响线程池线程
+        Thread.interrupted();
+      }
+    }
+
+    @Override
+    public boolean block() throws InterruptedException {
+      try {
+        result = task.call();
+      } catch (InterruptedException e) {
+        throw e;
+      } catch (Exception e) {
+        throw new CompletionException(e);
+      }
+      done = true;
+      return true;
+    }
+
+    @Override
+    public boolean isReleasable() {
+      return done;
+    }
+
+    synchronized void cancel() {
+      cancelled = true;
+      if (runner != null) {
+        runner.interrupt();
+      }
+    }
+
+    private Throwable unwrap(Throwable e) {
+      if (e instanceof CompletionException && e.getCause() != null) {
+        return e.getCause();
+      }
+      if (e instanceof InterruptedException && group.isDone()) {
+        return new CancellationException();
+      }
+      return e;
+    }
+  }
+
+  private static class PoolHolder {
+
+    static final ForkJoinPool POOL = new ForkJoinPool(
+        Math.max(4, Runtime.getRuntime().availableProcessors()), pool -> {
+          ForkJoinWorkerThread thread =
+              ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+          thread.setName("fan-out-" + thread.getPoolIndex());
+          thread.setDaemon(true);
+          return thread;
+        }, null, true);
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2018 justlive1
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package vip.justlive.common.base.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.extern.slf4j.Slf4j;
+import vip.justlive.common.base.exception.Exceptions;
+
+/**
+ * 通过共享目录下的文件锁分配节点id，每个节点id对应一个文件worker-{id}.lock
+ * <p>
+ * 进程退出时操作系统释放文件锁，节点id自动可被其他进程获取；续约时检查锁仍有效并写入心跳时间
+ *
+ * @author wubo
+ */
+@Slf4j
+public class FileLockWorkerIdAssigner implements WorkerIdAssigner {
+
+  private final Path dir;
+  private final Map<Integer, FileLock> locks = new ConcurrentHashMap<>(4);
+
+  public FileLockWorkerIdAssigner(Path dir) {
+    Checks.notNull(dir, "dir can not be null");
+    this.dir = dir;
+  }
+
+  @Override
+  public int acquire() {
+    try {
+      Files.createDirectories(dir);
+    } catch (IOException e) {
+      throw Exceptions.wrap(e);
+    }
+    for (int nodeId = 0; nodeId < MAX_NODE_ID; nodeId++) {
+      FileLock lock = tryLock(nodeId);
+      if (lock != null) {
+        locks.put(nodeId, lock);
+        heartbeat(lock);
+        return nodeId;
+      }
+    }
+    throw new IllegalStateException("no free worker id under " + dir);
+  }
+
+  @Override
+  public boolean renew(int nodeId) {
+    FileLock lock = locks.get(nodeId);
+    if (lock == null || !lock.isValid()) {
+      return false;
+    }
+    heartbeat(lock);
+    return true;
+  }
+
+  @Override
+  public void release(int nodeId) {
+    FileLock lock = locks.remove(nodeId);
+    if (lock == null) {
+      return;
+    }
+    try {
+      lock.release();
+      lock.channel().close();
+    } catch (IOException e) {
+      log.warn("release worker id [{}] lock error", nodeId, e);
+    }
+  }
+
+  private FileLock tryLock(int nodeId) {
+    Path file = dir.resolve("worker-" + nodeId + ".lock");
+    FileChannel channel = null;
+    try {
+      channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+      FileLock lock = channel.tryLock();
+      if (lock != null) {
+        return lock;
+      }
+    } catch (OverlappingFileLockException e) {
+      // 本进程内已持有
+    } catch (IOException e) {
+      log.warn("lock file [{}] error", file, e);
+    }
+    if (channel != null) {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        log.warn("close file [{}] error", file, e);
+      }
+    }
+    return null;
+  }
+
+  private void heartbeat(FileLock lock) {
+    byte[] bytes = String.valueOf(System.currentTimeMillis()).getBytes(StandardCharsets.UTF_8);
+    try {
+      FileChannel channel = lock.channel();
+      channel.truncate(0);
+      channel.write(ByteBuffer.wrap(bytes), 0);
+    } catch (IOException e) {
+      log.warn("write worker id heartbeat error", e);
+    }
+  }
+}
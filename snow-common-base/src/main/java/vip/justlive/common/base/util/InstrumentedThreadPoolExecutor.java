@@ -0,0 +1,539 @@
+/*
+ * Copyright (C) 2018 justlive1
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package vip.justlive.common.base.util;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 可观测、可动态调整的线程池
+ * <p>
+ * 记录队列长度、活跃线程数、任务等待时间和执行时间分布以及拒绝次数，支持运行时调整核心线程数、最大线程数和队列容量；
+ * 开启自动调整后按指标定时扩缩核心线程数
+ *
+ * @author wubo
+ */
+@Slf4j
+public class InstrumentedThreadPoolExecutor extends ThreadPoolExecutor {
+
+  private final String name;
+  private final ResizableQueue queue;
+  private final Histogram waitTime = new Histogram();
+  private final Histogram executionTime = new Histogram();
+  private final LongAdder rejectedCount = new LongAdder();
+  private final ThreadLocal<Long> startTime = new ThreadLocal<>();
+  private volatile ScheduledFuture<?> tuneTask;
+
+  public InstrumentedThreadPoolExecutor(int corePoolSize, int maxPoolSize, int keepAliveSeconds,
+      int queueCapacity, String name, ThreadFactory threadFactory,
+      RejectedExecutionHandler handler) {
+    this(corePoolSize, maxPoolSize, keepAliveSeconds, new ResizableQueue(queueCapacity), name,
+        threadFactory, handler);
+  }
+
+  private InstrumentedThreadPoolExecutor(int corePoolSize, int maxPoolSize, int keepAliveSeconds,
+      ResizableQueue queue, String name, ThreadFactory threadFactory,
+      RejectedExecutionHandler handler) {
+    super(corePoolSize, maxPoolSize, keepAliveSeconds, TimeUnit.SECONDS, queue, threadFactory,
+        handler);
+    this.name = name;
+    this.queue = queue;
+    super.setRejectedExecutionHandler(new CountingHandler(handler));
+  }
+
+  @Override
+  public void execute(Runnable command) {
+    Checks.notNull(command);
+    super.execute(new TimedTask(command));
+  }
+
+  @Override
+  public void setRejectedExecutionHandler(RejectedExecutionHandler handler) {
+    super.setRejectedExecutionHandler(new CountingHandler(handler));
+  }
+
+  @Override
+  public RejectedExecutionHandler getRejectedExecutionHandler() {
+    RejectedExecutionHandler handler = super.getRejectedExecutionHandler();
+    if (handler instanceof CountingHandler) {
+      return ((CountingHandler) handler).delegate;
+    }
+    return handler;
+  }
+
+  @Override
+  public boolean remove(Runnable task) {
+    for (Runnable r : queue) {
+      if (r instanceof TimedTask && ((TimedTask) r).task == task) {
+        return super.remove(r);
+      }
+    }
+    return super.remove(task);
+  }
+
+  @Override
+  public List<Runnable> shutdownNow() {
+    cancelTuning();
+    List<Runnable> tasks = super.shutdownNow();
+    List<Runnable> result = new ArrayList<>(tasks.size());
+    for (Runnable r : tasks) {
+      result.add(r instanceof TimedTask ? ((TimedTask) r).task : r);
+    }
+    return result;
+  }
+
+  @Override
+  public void shutdown() {
+    cancelTuning();
+    super.shutdown();
+  }
+
+  @Override
+  protected void beforeExecute(Thread t, Runnable r) {
+    long now = System.nanoTime();
+    if (r instanceof TimedTask) {
+      waitTime.record(now - ((TimedTask) r).submitTime);
+    }
+    startTime.set(now);
+    super.beforeExecute(t, r);
+  }
+
+  @Override
+  protected void afterExecute(Runnable r, Throwable t) {
+    super.afterExecute(r, t);
+    Long start = startTime.get();
+    if (start != null) {
+      executionTime.record(System.nanoTime() - start);
+      startTime.remove();
+    }
+  }
+
+  /**
+   * 队列容量
+   *
+   * @return 容量
+   */
+  public int getQueueCapacity() {
+    return queue.capacity;
+  }
+
+  /**
+   * 调整队列容量，缩小时已入队的任务不受影响
+   *
+   * @param queueCapacity 容量
+   */
+  public void setQueueCapacity(int queueCapacity) {
+    if (queueCapacity <= 0) {
+      throw new IllegalArgumentException("queueCapacity should be positive");
+    }
+    queue.capacity = queueCapacity;
+  }
+
+  /**
+   * 同时调整线程数和队列容量，按先后顺序保证core不大于max
+   *
+   * @param corePoolSize 线程数
+   * @param maxPoolSize 最大线程数
+   * @param queueCapacity 队列容量
+   */
+  public synchronized void resize(int corePoolSize, int maxPoolSize, int queueCapacity) {
+    if (corePoolSize < 0 || maxPoolSize <= 0 || maxPoolSize < corePoolSize) {
+      throw new IllegalArgumentException(
+          String.format("illegal pool size core:[%s] max:[%s]", corePoolSize, maxPoolSize));
+    }
+    if (corePoolSize > getMaximumPoolSize()) {
+      setMaximumPoolSize(maxPoolSize);
+      setCorePoolSize(corePoolSize);
+    } else {
+      setCorePoolSize(corePoolSize);
+      setMaximumPoolSize(maxPoolSize);
+    }
+    setQueueCapacity(queueCapacity);
+  }
+
+  /**
+   * 开启自动调整
+   * <p>
+   * 每个周期检查一次：队列使用超过一半或周期内有拒绝时核心线程数加倍（不超过maxCore，最大线程数随之提高）；
+   * 队列为空且活跃线程不足核心线程数一半时核心线程数减一（不低于minCore）
+   *
+   * @param minCore 最小核心线程数
+   * @param maxCore 最大核心线程数
+   * @param period 检查周期
+   * @param unit 单位
+   */
+  public synchronized void enableAutoTuning(int minCore, int maxCore, long period,
+      TimeUnit unit) {
+    if (minCore <= 0 || maxCore < minCore || period <= 0) {
+      throw new IllegalArgumentException(String
+          .format("illegal tuning args minCore:[%s] maxCore:[%s] period:[%s]", minCore, maxCore,
+              period));
+    }
+    cancelTuning();
+    Tuner tuner = new Tuner(minCore, maxCore);
+    tuneTask = TunerHolder.SCHEDULER.scheduleWithFixedDelay(tuner, period, period, unit);
+  }
+
+  /**
+   * 关闭自动调整
+   */
+  public synchronized void cancelTuning() {
+    if (tuneTask != null) {
+      tuneTask.cancel(false);
+      tuneTask = null;
+    }
+  }
+
+  /**
+   * 当前指标快照
+   *
+   * @return 指标
+   */
+  public Metrics metrics() {
+    return new Metrics(name, getCorePoolSize(), getMaximumPoolSize(), getPoolSize(),
+        getActiveCount(), queue.size(), queue.capacity, getCompletedTaskCount(),
+        rejectedCount.sum(), waitTime.snapshot(), executionTime.snapshot());
+  }
+
+  private class Tuner implements Runnable {
+
+    private final int minCore;
+    private final int maxCore;
+    private long lastRejected;
+
+    Tuner(int minCore, int maxCore) {
+      this.minCore = minCore;
+      this.maxCore = maxCore;
+      this.lastRejected = rejectedCount.sum();
+    }
+
+    @Override
+    public void run() {
+      if (isShutdown()) {
+        return;
+      }
+      long rejected = rejectedCount.sum();
+      boolean hasRejected = rejected > lastRejected;
+      lastRejected = rejected;
+      int core = getCorePoolSize();
+      int depth = queue.size();
+      int target = core;
+      if (hasRejected || depth * 2 > queue.capacity) {
+        target = Math.min(maxCore, Math.max(core * 2, minCore));
+      } else if (depth == 0 && getActiveCount() * 2 < core) {
+        target = Math.max(minCore, core - 1);
+      }
+      if (target != core) {
+        resize(target, Math.max(target, getMaximumPoolSize()), queue.capacity);
+        log.info("线程池[{}]核心线程数调整 {} -> {}", name, core, target);
+      }
+    }
+  }
+
+  private static class TunerHolder {
+
+    static final ScheduledExecutorService SCHEDULER =
+        ThreadUtils.newSecheduledExecutor(1, "thread-pool-tuner-%d");
+  }
+
+  private static class TimedTask implements Runnable {
+
+    final Runnable task;
+    final long submitTime = System.nanoTime();
+
+    TimedTask(Runnable task) {
+      this.task = task;
+    }
+
+    @Override
+    public void run() {
+      task.run();
+    }
+
+    @Override
+    public String toString() {
+      return task.toString();
+    }
+  }
+
+  private class CountingHandler implements RejectedExecutionHandler {
+
+    final RejectedExecutionHandler delegate;
+
+    CountingHandler(RejectedExecutionHandler delegate) {
+      Checks.notNull(delegate);
+      this.delegate = delegate;
+    }
+
+    @Override
+    public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+      rejectedCount.increment();
+      delegate.rejectedExecution(r instanceof TimedTask ? ((TimedTask) r).task : r, executor);
+    }
+  }
+
+  /**
+   * 容量可调整的队列
+   * <p>
+   * 底层无界，入队时按当前容量判断，并发入队时可能短暂超出容量
+   */
+  static class ResizableQueue extends LinkedBlockingQueue<Runnable> {
+
+    private static final long serialVersionUID = 1L;
+
+    volatile int capacity;
+
+    ResizableQueue(int capacity) {
+      if (capacity <= 0) {
+        throw new IllegalArgumentException("queueCapacity should be positive");
+      }
+      this.capacity = capacity;
+    }
+
+    @Override
+    public boolean offer(Runnable r) {
+      if (size() >= capacity) {
+        return false;
+      }
+      return super.offer(r);
+    }
+
+    @Override
+    public int remainingCapacity() {
+      return Math.max(0, capacity - size());
+    }
+  }
+
+  /**
+   * 耗时分布，按2的幂分桶（纳秒），分位数返回所在桶的上界
+   */
+  static final class Histogram {
+
+    private static final int BUCKETS = 64;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    void record(long nanos) {
+      long value = Math.max(0, nanos);
+      buckets.incrementAndGet(BUCKETS - 1 - Long.numberOfLeadingZeros(value | 1));
+      count.increment();
+      total.add(value);
+      max.accumulate(value);
+    }
+
+    Distribution snapshot() {
+      long[] counts = new long[BUCKETS];
+      for (int i = 0; i < BUCKETS; i++) {
+        counts[i] = buckets.get(i);
+      }
+      return new Distribution(counts, count.sum(), total.sum(), max.get());
+    }
+  }
+
+  /**
+   * 耗时分布快照，单位纳秒
+   */
+  public static final class Distribution {
+
+    private final long[] buckets;
+    private final long count;
+    private final long total;
+    private final long max;
+
+    Distribution(long[] buckets, long count, long total, long max) {
+      this.buckets = buckets;
+      this.count = count;
+      this.total = total;
+      this.max = max;
+    }
+
+    public long count() {
+      return count;
+    }
+
+    public long total() {
+      return total;
+    }
+
+    public long max() {
+      return max;
+    }
+
+    public double mean() {
+      return count == 0 ? 0 : (double) total / count;
+    }
+
+    /**
+     * 分位数近似值
+     *
+     * @param percentile 分位，取值(0, 1]
+     * @return 耗时上界
+     */
+    public long percentile(double percentile) {
+      if (percentile <= 0 || percentile > 1) {
+        throw new IllegalArgumentException("percentile should be in (0, 1]");
+      }
+      long sum = 0;
+      for (long c : buckets) {
+        sum += c;
+      }
+      long rank = (long) Math.ceil(sum * percentile);
+      long seen = 0;
+      for (int i = 0; i < buckets.length; i++) {
+        seen += buckets[i];
+        if (seen >= rank && seen > 0) {
+          return Math.min(max, i >= 62 ? Long.MAX_VALUE : (1L << (i + 1)) - 1);
+        }
+      }
+      return 0;
+    }
+  }
+
+  /**
+   * 线程池指标快照
+   */
+  public static final class Metrics {
+
+    private final String name;
+    private final int corePoolSize;
+    private final int maximumPoolSize;
+    private final int poolSize;
+    private final int activeCount;
+    private final int queueSize;
+    private final int queueCapacity;
+    private final long completedTaskCount;
+    private final long rejectedCount;
+    private final Distribution waitTime;
+    private final Distribution executionTime;
+
+    Metrics(String name, int corePoolSize, int maximumPoolSize, int poolSize, int activeCount,
+        int queueSize, int queueCapacity, long completedTaskCount, long rejectedCount,
+        Distribution waitTime, Distribution executionTime) {
+      this.name = name;
+      this.corePoolSize = corePoolSize;
+      this.maximumPoolSize = maximumPoolSize;
+      this.poolSize = poolSize;
+      this.activeCount = activeCount;
+      this.queueSize = queueSize;
+      this.queueCapacity = queueCapacity;
+      this.completedTaskCount = completedTaskCount;
+      this.rejectedCount = rejectedCount;
+      this.waitTime = waitTime;
+      this.executionTime = executionTime;
+    }
+
+    public String name() {
+      return name;
+    }
+
+    public int corePoolSize() {
+      return corePoolSize;
+    }
+
+    public int maximumPoolSize() {
+      return maximumPoolSize;
+    }
+
+    public int poolSize() {
+      return poolSize;
+    }
+
+    public int activeCount() {
+      return activeCount;
+    }
+
+    public int queueSize() {
+      return queueSize;
+    }
+
+    public int queueCapacity() {
+      return queueCapacity;
+    }
+
+    public long completedTaskCount() {
+      return completedTaskCount;
+    }
+
+    public long rejectedCount() {
+      return rejectedCount;
+    }
+
+    /**
+     * 任务从提交到开始执行的等待时间
+     *
+     * @return 分布
+     */
+    public Distribution waitTime() {
+      return waitTime;
+    }
+
+    /**
+     * 任务执行时间
+     *
+     * @return 分布
+     */
+    public Distribution executionTime() {
+      return executionTime;
+    }
+
+    /**
+     * 转为扁平的指标名与值，便于对接监控
+     *
+     * @return 指标
+     */
+    public Map<String, Number> toMap() {
+      Map<String, Number> map = new LinkedHashMap<>();
+      map.put("pool.core", corePoolSize);
+      map.put("pool.max", maximumPoolSize);
+      map.put("pool.size", poolSize);
+      map.put("pool.active", activeCount);
+      map.put("queue.size", queueSize);
+      map.put("queue.capacity", queueCapacity);
+      map.put("task.completed", completedTaskCount);
+      map.put("task.rejected", rejectedCount);
+      put(map, "wait", waitTime);
+      put(map, "execution", executionTime);
+      return map;
+    }
+
+    private static void put(Map<String, Number> map, String prefix, Distribution d) {
+      map.put(prefix + ".count", d.count());
+      map.put(prefix + ".mean", d.mean());
+      map.put(prefix + ".p50", d.percentile(0.5));
+      map.put(prefix + ".p99", d.percentile(0.99));
+      map.put(prefix + ".max", d.max());
+    }
+
+    @Override
+    public String toString() {
+      return "Metrics[" + name + "]" + toMap();
+    }
+  }
+}
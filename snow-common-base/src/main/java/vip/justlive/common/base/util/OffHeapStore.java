@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2018 justlive1
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package vip.justlive.common.base.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 堆外存储，值经编码后写入直接内存分配的slab
+ * <p>
+ * slab按固定大小的块切分，一个值占用一个或多个块，块之间通过块头中的下一块序号串联，所有块共用一个空闲栈，
+ * 不会因为值大小分布变化出现碎片
+ * <p>
+ * 非线程安全，写入和释放需持有所属段的写锁，读取需持有读锁
+ *
+ * @param <V> 泛型
+ * @author wubo
+ */
+final class OffHeapStore<V> {
+
+  /**
+   * 空地址
+   */
+  static final int NULL = -1;
+
+  /**
+   * 单个slab大小
+   */
+  private static final int SLAB_SIZE = 1 << 20;
+
+  /**
+   * 块头：下一块序号
+   */
+  private static final int NEXT_SIZE = 4;
+
+  /**
+   * 首块头：下一块序号和值的长度
+   */
+  private static final int HEAD_SIZE = 8;
+
+  private final ExpiringMap.ValueCodec<V> codec;
+  private final int blockSize;
+  private final int blocksPerSlab;
+  private final int maxBlocks;
+  private final ByteBuffer[] slabs;
+
+  /**
+   * 已从slab中切出的块数
+   */
+  private int carvedBlocks;
+
+  /**
+   * 空闲块
+   */
+  private int[] freeBlocks = new int[64];
+  private int freeCount;
+
+  /**
+   * 使用中的块数
+   */
+  private int usedBlocks;
+
+  OffHeapStore(ExpiringMap.ValueCodec<V> codec, long capacity, int blockSize) {
+    if (blockSize <= HEAD_SIZE || blockSize > SLAB_SIZE) {
+      throw new IllegalArgumentException("blockSize should be in (8, " + SLAB_SIZE + "]");
+    }
+    if (capacity < blockSize) {
+      throw new IllegalArgumentException("off-heap capacity should not be less than blockSize");
+    }
+    this.codec = codec;
+    this.blockSize = blockSize;
+    this.blocksPerSlab = SLAB_SIZE / blockSize;
+    this.maxBlocks = (int) Math.min(capacity / blockSize, Integer.MAX_VALUE);
+    this.slabs = new ByteBuffer[(maxBlocks + blocksPerSlab - 1) / blocksPerSlab];
+  }
+
+  /**
+   * 编码值
+   *
+   * @param value 值
+   * @return 字节
+   */
+  byte[] encode(V value) {
+    byte[] bytes = codec.encode(value);
+    if (blocksFor(bytes.length) > maxBlocks) {
+      throw new IllegalArgumentException(
+          "value size [" + bytes.length + "] exceeds off-heap capacity of a segment");
+    }
+    return bytes;
+  }
+
+  /**
+   * 写入字节，空间不足时返回NULL
+   *
+   * @param bytes 字节
+   * @return 首块地址
+   */
+  int write(byte[] bytes) {
+    int blocks = blocksFor(bytes.length);
+    if (freeCount + maxBlocks - carvedBlocks < blocks) {
+      return NULL;
+    }
+    int head = nextFreeBlock();
+    int block = head;
+    int offset = 0;
+    int capacity = blockSize - HEAD_SIZE;
+    ByteBuffer buf = slice(head);
+    buf.putInt(NULL);
+    buf.putInt(bytes.length);
+    for (int i = 0; i < blocks; i++) {
+      int len = Math.min(capacity, bytes.length - offset);
+      buf.put(bytes, offset, len);
+      offset += len;
+      if (i < blocks - 1) {
+        int next = nextFreeBlock();
+        slab(block).putInt(position(block), next);
+        block = next;
+        buf = slice(block);
+        buf.putInt(NULL);
+        capacity = blockSize - NEXT_SIZE;
+      }
+    }
+    usedBlocks += blocks;
+    return head;
+  }
+
+  /**
+   * 读取并解码
+   *
+   * @param address 首块地址
+   * @return 值
+   */
+  V read(int address) {
+    ByteBuffer buf = slice(address);
+    int next = buf.getInt();
+    byte[] bytes = new byte[buf.getInt()];
+    int offset = 0;
+    int len = Math.min(blockSize - HEAD_SIZE, bytes.length);
+    buf.get(bytes, offset, len);
+    offset += len;
+    while (next != NULL) {
+      buf = slice(next);
+      next = buf.getInt();
+      len = Math.min(blockSize - NEXT_SIZE, bytes.length - offset);
+      buf.get(bytes, offset, len);
+      offset += len;
+    }
+    return codec.decode(bytes);
+  }
+
+  /**
+   * 释放
+   *
+   * @param address 首块地址
+   */
+  void free(int address) {
+    int block = address;
+    while (block != NULL) {
+      int next = slab(block).getInt(position(block));
+      pushFreeBlock(block);
+      usedBlocks--;
+      block = next;
+    }
+  }
+
+  /**
+   * 释放全部，slab保留复用
+   */
+  void clear() {
+    carvedBlocks = 0;
+    freeCount = 0;
+    usedBlocks = 0;
+  }
+
+  /**
+   * 使用中的字节数
+   *
+   * @return 字节数
+   */
+  long usedBytes() {
+    return (long) usedBlocks * blockSize;
+  }
+
+  private int blocksFor(int length) {
+    int first = blockSize - HEAD_SIZE;
+    if (length <= first) {
+      return 1;
+    }
+    int rest = blockSize - NEXT_SIZE;
+    return 1 + (length - first + rest - 1) / rest;
+  }
+
+  private int nextFreeBlock() {
+    if (freeCount > 0) {
+      return freeBlocks[--freeCount];
+    }
+    int block = carvedBlocks++;
+    int slabIndex = block / blocksPerSlab;
+    if (slabs[slabIndex] == null) {
+      int blocks = Math.min(blocksPerSlab, maxBlocks - slabIndex * blocksPerSlab);
+      slabs[slabIndex] = ByteBuffer.allocateDirect(blocks * blockSize);
+    }
+    return block;
+  }
+
+  private void pushFreeBlock(int block) {
+    if (freeCount == freeBlocks.length) {
+      int[] grown = new int[freeBlocks.length << 1];
+      System.arraycopy(freeBlocks, 0, grown, 0, freeCount);
+      freeBlocks = grown;
+    }
+    freeBlocks[freeCount++] = block;
+  }
+
+  private ByteBuffer slab(int block) {
+    return slabs[block / blocksPerSlab];
+  }
+
+  private int position(int block) {
+    return (block % blocksPerSlab) * blockSize;
+  }
+
+  /**
+   * 块的独立视图，多个读线程可并发使用
+   */
+  private ByteBuffer slice(int block) {
+    ByteBuffer buf = slab(block).duplicate();
+    int position = position(block);
+    buf.limit(position + blockSize).position(position);
+    return buf;
+  }
+}
@@ -13,11 +13,14 @@
  */
 package vip.justlive.common.base.util;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * placeHolder帮助类<br>
@@ -48,6 +51,11 @@ public class PlaceHolderHelper {
    */
   public static final PlaceHolderHelper DEFAULT_HELPER;
 
+  /**
+   * 模板缓存上限
+   */
+  private static final int MAX_CACHED_TEMPLATES = 4096;
+
   private static final Map<String, String> SIMPLE_PREFIXES = new HashMap<>(4);
 
   static {
@@ -69,6 +77,11 @@ public class PlaceHolderHelper {
 
   private final boolean ignoreUnresolvablePlaceholders;
 
+  /**
+   * 编译过的模板
+   */
+  private final Map<String, Template> templates = new ConcurrentHashMap<>();
+
   public PlaceHolderHelper(String placeholderPrefix, String placeholderSuffix) {
     this(placeholderPrefix, placeholderSuffix, null, true);
   }
@@ -104,49 +117,115 @@ public class PlaceHolderHelper {
   public String replacePlaceholders(String value, final Properties properties) {
     Checks.notNull(properties, "'properties' must not be null");
     Checks.notNull(value, "'value' must not be null");
-    return parseStringValue(value, properties, new HashSet<>());
+    return resolve(compile(value), properties);
+  }
+
+  /**
+   * 编译占位模板，结果按字符串缓存
+   * 
+   * @param value 需要编译的字符串
+   * @return 模板
+   */
+  public Template compile(String value) {
+    Checks.notNull(value, "'value' must not be null");
+    Template template = templates.get(value);
+    if (template == null) {
+      template = doCompile(value);
+      if (templates.size() < MAX_CACHED_TEMPLATES) {
+        templates.putIfAbsent(value, template);
+      }
+    }
+    return template;
+  }
+
+  /**
+   * 使用配置集合解析模板
+   * 
+   * @param template 模板
+   * @param properties 配置集合
+   * @return 替换后的字符串
+   */
+  public String resolve(Template template, final Properties properties) {
+    Checks.notNull(properties, "'properties' must not be null");
+    Checks.notNull(template, "'template' must not be null");
+    if (template.isLiteral()) {
+      return template.source;
+    }
+    return resolve(template, properties, new HashSet<>());
   }
 
   protected String parseStringValue(String value, Properties properties,
       Set<String> visitedPlaceholders) {
-    StringBuilder result = new StringBuilder(value);
-    int startIndex = value.indexOf(this.placeholderPrefix);
-    while (startIndex != -1) {
-      int endIndex = findPlaceholderEndIndex(result, startIndex);
-      if (endIndex != -1) {
-        String placeholder =
-            result.substring(startIndex + this.placeholderPrefix.length(), endIndex);
-        String originalPlaceholder = placeholder;
-        if (!visitedPlaceholders.add(originalPlaceholder)) {
-          throw new IllegalArgumentException("Circular placeholder reference '"
-              + originalPlaceholder + "' in property definitions");
-        }
-        // 递归
-        placeholder = parseStringValue(placeholder, properties, visitedPlaceholders);
-        // 获取没有占位的属性值
-        String propVal = properties.getProperty(placeholder);
-        propVal = getCommonVal(properties, placeholder, propVal);
-        if (propVal != null) {
-          // 递归 表达式中含有表达式
-          propVal = parseStringValue(propVal, properties, visitedPlaceholders);
-          result.replace(startIndex, endIndex + this.placeholderSuffix.length(), propVal);
-          startIndex = result.indexOf(this.placeholderPrefix, startIndex + propVal.length());
-        } else if (this.ignoreUnresolvablePlaceholders) {
-          // 继续解析
-          startIndex =
-              result.indexOf(this.placeholderPrefix, endIndex + this.placeholderSuffix.length());
-        } else {
-          throw new IllegalArgumentException("Could not resolve placeholder '" + placeholder + "'"
-              + " in value \"" + value + "\"");
-        }
-        visitedPlaceholders.remove(originalPlaceholder);
+    return resolve(compile(value), properties, visitedPlaceholders);
+  }
+
+  private String resolve(Template template, Properties properties,
+      Set<String> visitedPlaceholders) {
+    if (template.isLiteral()) {
+      return template.source;
+    }
+    StringBuilder result = new StringBuilder(template.source.length());
+    for (Object segment : template.segments) {
+      if (segment instanceof String) {
+        result.append((String) segment);
+        continue;
+      }
+      Reference reference = (Reference) segment;
+      String originalPlaceholder = reference.placeholder;
+      if (!visitedPlaceholders.add(originalPlaceholder)) {
+        throw new IllegalArgumentException("Circular placeholder reference '"
+            + originalPlaceholder + "' in property definitions");
+      }
+      // 递归
+      String placeholder = resolve(reference.key, properties, visitedPlaceholders);
+      // 获取没有占位的属性值
+      String propVal = properties.getProperty(placeholder);
+      propVal = getCommonVal(properties, placeholder, propVal);
+      if (propVal != null) {
+        // 递归 表达式中含有表达式
+        result.append(resolve(compile(propVal), properties, visitedPlaceholders));
+      } else if (this.ignoreUnresolvablePlaceholders) {
+        // 保留原占位
+        result.append(this.placeholderPrefix).append(originalPlaceholder)
+            .append(this.placeholderSuffix);
       } else {
-        startIndex = -1;
+        throw new IllegalArgumentException("Could not resolve placeholder '" + placeholder + "'"
+            + " in value \"" + template.source + "\"");
       }
+      visitedPlaceholders.remove(originalPlaceholder);
     }
     return result.toString();
   }
 
+  private Template doCompile(String value) {
+    int startIndex = value.indexOf(this.placeholderPrefix);
+    if (startIndex == -1) {
+      return new Template(value, null);
+    }
+    List<Object> segments = new ArrayList<>(4);
+    int literalIndex = 0;
+    while (startIndex != -1) {
+      int endIndex = findPlaceholderEndIndex(value, startIndex);
+      if (endIndex == -1) {
+        break;
+      }
+      if (startIndex > literalIndex) {
+        segments.add(value.substring(literalIndex, startIndex));
+      }
+      String placeholder = value.substring(startIndex + this.placeholderPrefix.length(), endIndex);
+      segments.add(new Reference(placeholder, doCompile(placeholder)));
+      literalIndex = endIndex + this.placeholderSuffix.length();
+      startIndex = value.indexOf(this.placeholderPrefix, literalIndex);
+    }
+    if (segments.isEmpty()) {
+      return new Template(value, null);
+    }
+    if (literalIndex < value.length()) {
+      segments.add(value.substring(literalIndex));
+    }
+    return new Template(value, segments.toArray());
+  }
+
   private String getCommonVal(Properties properties, String placeholder, String propVal) {
     if (propVal == null && this.valueSeparator != null) {
       int separatorIndex = placeholder.indexOf(this.valueSeparator);
@@ -195,4 +274,64 @@ public class PlaceHolderHelper {
     return true;
   }
 
+  /**
+   * 编译后的占位模板，由字面量和占位引用组成
+   */
+  public static final class Template {
+
+    /**
+     * 原字符串
+     */
+    private final String source;
+
+    /**
+     * 片段，字面量为{@link String}，占位为{@link Reference}
+     */
+    private final Object[] segments;
+
+    Template(String source, Object[] segments) {
+      this.source = source;
+      this.segments = segments;
+    }
+
+    /**
+     * 获取原字符串
+     * 
+     * @return 原字符串
+     */
+    public String getSource() {
+      return source;
+    }
+
+    /**
+     * 是否不含占位
+     * 
+     * @return true为纯字面量
+     */
+    public boolean isLiteral() {
+      return segments == null;
+    }
+  }
+
+  /**
+   * 占位引用
+   */
+  private static final class Reference {
+
+    /**
+     * 原占位内容
+     */
+    private final String placeholder;
+
+    /**
+     * 占位内容编译后的模板，支持嵌套
+     */
+    private final Template key;
+
+    Reference(String placeholder, Template key) {
+      this.placeholder = placeholder;
+      this.key = key;
+    }
+  }
+
 }
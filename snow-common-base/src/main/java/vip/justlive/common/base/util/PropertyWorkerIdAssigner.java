@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2018 justlive1
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package vip.justlive.common.base.util;
+
+import vip.justlive.common.base.support.ConfigFactory;
+
+/**
+ * 从配置中读取节点id，配置项snowflake.workerId和snowflake.dataCenterId，未配置时为0
+ * <p>
+ * 由配置保证不重复，续约总是成功
+ *
+ * @author wubo
+ */
+public class PropertyWorkerIdAssigner implements WorkerIdAssigner {
+
+  public static final String WORKER_ID = "snowflake.workerId";
+  public static final String DATACENTER_ID = "snowflake.dataCenterId";
+
+  @Override
+  public int acquire() {
+    int workerId = Integer.parseInt(ConfigFactory.getProperty(WORKER_ID, "0"));
+    int dataCenterId = Integer.parseInt(ConfigFactory.getProperty(DATACENTER_ID, "0"));
+    if (workerId < 0 || workerId > 31 || dataCenterId < 0 || dataCenterId > 31) {
+      throw new IllegalArgumentException(String.format(
+          "%s and %s should be in [0, 31] but were %s and %s", WORKER_ID, DATACENTER_ID,
+          workerId, dataCenterId));
+    }
+    return (dataCenterId << 5) | workerId;
+  }
+
+  @Override
+  public boolean renew(int nodeId) {
+    return true;
+  }
+
+  @Override
+  public void release(int nodeId) {
+    // 配置分配，无需释放
+  }
+}
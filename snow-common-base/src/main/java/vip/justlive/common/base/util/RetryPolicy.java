@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2018 justlive1
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package vip.justlive.common.base.util;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 重试策略，不可变，通过{@link #builder()}构造
+ * <p>
+ * 第n次重试前等待 min(maxDelay, initialDelay * multiplier^(n-1))，再按jitter随机缩短，避免大量任务同时重试
+ *
+ * @author wubo
+ */
+public final class RetryPolicy {
+
+  private final int maxAttempts;
+  private final long initialDelayMillis;
+  private final long maxDelayMillis;
+  private final double multiplier;
+  private final double jitter;
+  private final String circuitKey;
+  private final int failureThreshold;
+  private final long openMillis;
+
+  private RetryPolicy(Builder builder) {
+    this.maxAttempts = builder.maxAttempts;
+    this.initialDelayMillis = builder.initialDelayMillis;
+    this.maxDelayMillis = builder.maxDelayMillis;
+    this.multiplier = builder.multiplier;
+    this.jitter = builder.jitter;
+    this.circuitKey = builder.circuitKey;
+    this.failureThreshold = builder.failureThreshold;
+    this.openMillis = builder.openMillis;
+  }
+
+  /**
+   * 构造器
+   *
+   * @return 构造器
+   */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * 最多执行次数，包含首次执行
+   *
+   * @return 次数
+   */
+  public int getMaxAttempts() {
+    return maxAttempts;
+  }
+
+  public String getCircuitKey() {
+    return circuitKey;
+  }
+
+  public int getFailureThreshold() {
+    return failureThreshold;
+  }
+
+  public long getOpenMillis() {
+    return openMillis;
+  }
+
+  /**
+   * 第retry次重试前的等待时间
+   *
+   * @param retry 重试序号，从1开始
+   * @return 毫秒
+   */
+  public long delayMillis(int retry) {
+    double delay = initialDelayMillis * Math.pow(multiplier, retry - 1.0);
+    delay = Math.min(delay, maxDelayMillis);
+    if (jitter > 0) {
+      delay *= 1 - jitter * ThreadLocalRandom.current().nextDouble();
+    }
+    return (long) delay;
+  }
+
+  /**
+   * 重试策略构造器
+   */
+  public static final class Builder {
+
+    private int maxAttempts = 3;
+    private long initialDelayMillis = 100;
+    private long maxDelayMillis = 30000;
+    private double multiplier = 2;
+    private double jitter = 0.5;
+    private String circuitKey;
+    private int failureThreshold = 5;
+    private long openMillis = 30000;
+
+    private Builder() {}
+
+    /**
+     * 最多执行次数，包含首次执行，默认3
+     *
+     * @param maxAttempts 次数
+     * @return 构造器
+     */
+    public Builder maxAttempts(int maxAttempts) {
+      if (maxAttempts <= 0) {
+        throw new IllegalArgumentException("maxAttempts should be positive");
+      }
+      this.maxAttempts = maxAttempts;
+      return this;
+    }
+
+    /**
+     * 指数退避，默认100毫秒起，最长30秒
+     *
+     * @param initialDelay 首次重试等待
+     * @param maxDelay 最长等待
+     * @param unit 单位
+     * @return 构造器
+     */
+    public Builder backoff(long initialDelay, long maxDelay, TimeUnit unit) {
+      if (initialDelay < 0 || maxDelay < initialDelay) {
+        throw new IllegalArgumentException(
+            String.format("illegal backoff initial:[%s] max:[%s]", initialDelay, maxDelay));
+      }
+      this.initialDelayMillis = unit.toMillis(initialDelay);
+      this.maxDelayMillis = unit.toMillis(maxDelay);
+      return this;
+    }
+
+    /**
+     * 退避倍数，默认2
+     *
+     * @param multiplier 倍数
+     * @return 构造器
+     */
+    public Builder multiplier(double multiplier) {
+      if (multiplier < 1) {
+        throw new IllegalArgumentException("multiplier should not be less than 1");
+      }
+      this.multiplier = multiplier;
+      return this;
+    }
+
+    /**
+     * 随机缩短比例，取值[0, 1]，默认0.5
+     *
+     * @param jitter 比例
+     * @return 构造器
+     */
+    public Builder jitter(double jitter) {
+      if (jitter < 0 || jitter > 1) {
+        throw new IllegalArgumentException("jitter should be in [0, 1]");
+      }
+      this.jitter = jitter;
+      return this;
+    }
+
+    /**
+     * 开启熔断，相同key的任务共享熔断状态
+     * <p>
+     * 连续失败达到阈值后熔断openDuration时间，期间直接失败；到期后放行一次试探，成功则恢复
+     *
+     * @param key 熔断key
+     * @param failureThreshold 连续失败阈值
+     * @param openDuration 熔断时间
+     * @param unit 单位
+     * @return 构造器
+     */
+    public Builder circuitBreaker(String key, int failureThreshold, long openDuration,
+        TimeUnit unit) {
+      Checks.notNull(key, "circuit key can not be null");
+      if (failureThreshold <= 0 || openDuration <= 0) {
+        throw new IllegalArgumentException("failureThreshold and openDuration should be positive");
+      }
+      this.circuitKey = key;
+      this.failureThreshold = failureThreshold;
+      this.openMillis = unit.toMillis(openDuration);
+      return this;
+    }
+
+    /**
+     * 构造
+     *
+     * @return 重试策略
+     */
+    public RetryPolicy build() {
+      return new RetryPolicy(this);
+    }
+  }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2018 justlive1
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package vip.justlive.common.base.util;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 重试调度
+ * <p>
+ * 任务在worker线程池执行并携带提交线程的{@link ThreadContext}，失败后由定时线程按退避时间延迟再提交，等待期间不占用worker线程和队列。<br>
+ * 同时等待中的重试数量受budget限制，超出时不再重试直接以最后一次异常结束，避免故障时重试挤占正常任务
+ *
+ * @author wubo
+ */
+@Slf4j
+public class RetryScheduler {
+
+  private final Executor worker;
+  private final ScheduledExecutorService timer;
+  private final int budget;
+  private final AtomicInteger pending = new AtomicInteger();
+  private final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>(8);
+
+  /**
+   * 构造重试调度
+   *
+   * @param worker 执行任务的线程池
+   * @param timer 延迟调度线程池
+   * @param budget 同时等待中的重试上限
+   */
+  public RetryScheduler(Executor worker, ScheduledExecutorService timer, int budget) {
+    Checks.notNull(worker, "worker can not be null");
+    Checks.notNull(timer, "timer can not be null");
+    if (budget <= 0) {
+      throw new IllegalArgumentException("budget should be positive");
+    }
+    this.worker = worker;
+    this.timer = timer;
+    this.budget = budget;
+  }
+
+  /**
+   * 提交任务
+   *
+   * @param callable 任务
+   * @param policy 重试策略
+   * @param <T> 泛型
+   * @return 最终结果，重试用尽时为最后一次的异常
+   */
+  public <T> CompletableFuture<T> submit(Callable<T> callable, RetryPolicy policy) {
+    Checks.notNull(callable, "callable can not be null");
+    Checks.notNull(policy, "policy can not be null");
+    Attempt<T> attempt = new Attempt<>(ThreadContext.wrap(callable), policy);
+    attempt.dispatch();
+    return attempt.future;
+  }
+
+  /**
+   * 等待中的重试数量
+   *
+   * @return 数量
+   */
+  public int pendingRetries() {
+    return pending.get();
+  }
+
+  /**
+   * 熔断是否打开
+   *
+   * @param key 熔断key
+   * @return true为打开
+   */
+  public boolean isCircuitOpen(String key) {
+    CircuitBreaker breaker = breakers.get(key);
+    return breaker != null && breaker.isOpen(System.currentTimeMillis());
+  }
+
+  private class Attempt<T> implements Runnable {
+
+    final Callable<T> callable;
+    final RetryPolicy policy;
+    final CircuitBreaker breaker;
+    final CompletableFuture<T> future = new CompletableFuture<>();
+    int attempts;
+
+    Attempt(Callable<T> callable, RetryPolicy policy) {
+      this.callable = callable;
+      this.policy = policy;
+      if (policy.getCircuitKey() != null) {
+        this.breaker = breakers.computeIfAbsent(policy.getCircuitKey(),
+            k -> new CircuitBreaker(policy.getFailureThreshold(), policy.getOpenMillis()));
+      } else {
+        this.breaker = null;
+      }
+    }
+
+    void dispatch() {
+      try {
+        worker.execute(this);
+      } catch (RejectedExecutionException e) {
+        future.completeExceptionally(e);
+      }
+    }
+
+    @Override
+    public void run() {
+      if (future.isDone()) {
+        return;
+      }
+      if (breaker != null && !breaker.tryAcquire(System.currentTimeMillis())) {
+        future.completeExceptionally(new IllegalStateException(
+            String.format("circuit [%s] is open", policy.getCircuitKey())));
+        return;
+      }
+      attempts++;
+      try {
+        T result = callable.call();
+        if (breaker != null) {
+          breaker.onSuccess();
+        }
+        future.complete(result);
+      } catch (Exception e) {
+        if (breaker != null) {
+          breaker.onFailure(System.currentTimeMillis());
+        }
+        retryOrFail(e);
+      } catch (Throwable e) {
+        // Error不重试，直接失败并释放试探状态
+        if (breaker != null) {
+          breaker.onFailure(System.currentTimeMillis());
+        }
+        log.error("重试任务-任务失败-不可重试 {}", callable, e);
+        future.completeExceptionally(e);
+      }
+    }
+
+    private void retryOrFail(Exception e) {
+      if (attempts >= policy.getMaxAttempts()) {
+        log.error("重试任务-任务失败-重试超限 {}", callable, e);
+        future.completeExceptionally(e);
+        return;
+      }
+      if (pending.incrementAndGet() > budget) {
+        pending.decrementAndGet();
+        log.error("重试任务-任务失败-重试预算不足 {}", callable, e);
+        future.completeExceptionally(e);
+        return;
+      }
+      long delay = policy.delayMillis(attempts);
+      log.warn("重试任务-任务失败-{}毫秒后第{}次重试", delay, attempts, e);
+      try {
+        timer.schedule(() -> {
+          pending.decrementAndGet();
+          dispatch();
+        }, delay, TimeUnit.MILLISECONDS);
+      } catch (RejectedExecutionException ex) {
+        pending.decrementAndGet();
+        future.completeExceptionally(e);
+      }
+    }
+  }
+
+  /**
+   * 熔断器，连续失败计数
+   */
+  static final class CircuitBreaker {
+
+    private final int failureThreshold;
+    private final long openMillis;
+    private int failures;
+    private long openUntil;
+    private boolean probing;
+
+    CircuitBreaker(int failureThreshold, long openMillis) {
+      this.failureThreshold = failureThreshold;
+      this.openMillis = openMillis;
+    }
+
+    synchronized boolean isOpen(long now) {
+      return failures >= failureThreshold && (now < openUntil || probing);
+    }
+
+    /**
+     * 是否放行，熔断到期后只放行一次试探
+     */
+    synchronized boolean tryAcquire(long now) {
+      if (failures < failureThreshold) {
+        return true;
+      }
+      if (now < openUntil || probing) {
+        return false;
+      }
+      probing = true;
+      return true;
+    }
+
+    synchronized void onSuccess() {
+      failures = 0;
+      probing = false;
+    }
+
+    synchronized void onFailure(long now) {
+      failures++;
+      probing = false;
+      if (failures >= failureThreshold) {
+        openUntil = now + openMillis;
+      }
+    }
+  }
+}
@@ -13,9 +13,10 @@
  */
 package vip.justlive.common.base.util;
 
-import java.sql.Timestamp;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
 import vip.justlive.common.base.exception.Exceptions;
 
 /**
@@ -36,6 +37,11 @@ import vip.justlive.common.base.exception.Exceptions;
  * <p>
  * 加起来刚好64位，为一个Long型。<br>
  * SnowFlake的优点是，整体上按照时间自增排序，并且整个分布式系统内不会产生ID碰撞(由数据中心ID和机器ID作区分)，并且效率较高，经测试，SnowFlake每秒能够产生26万ID左右。
+ * <p>
+ * 时间戳和序列号合并存放在一个AtomicLong中，通过CAS推进，生成id不需要加锁；批量获取时一次CAS预留连续的一段，
+ * 超出当前毫秒的部分顺延到后续毫秒
+ * <p>
+ * 设置maxBorrowMillis后进入借用模式：序列用完或时钟回退时，在该范围内直接使用领先系统时间的逻辑时间继续生成，不等待也不抛异常
  * 
  * @author wubo
  *
@@ -76,17 +82,72 @@ public class SnowflakeIdWorker {
    */
   private static final long SEQUENCE_MASK = -1L ^ (-1L << SEQUENCE_BITS);
 
-  private long workerId;
-  private long dataCenterId;
-  private long sequence = 0L;
-  private long lastTimestamp = -1L;
-  private boolean isClock = false;
+  /**
+   * 可容忍的时钟回退毫秒数，回退不超过该值时等待时钟追上
+   */
+  private static final long MAX_BACKWARD_MILLIS = 5L;
 
-  private static class InstanceHolder {
-    private InstanceHolder() {}
+  private final long workerId;
+  private final long dataCenterId;
 
-    public static final SnowflakeIdWorker INSTANCE = new SnowflakeIdWorker(0, 0);
-  }
+  /**
+   * 预先移位好的数据中心和机器位
+   */
+  private final long nodeBits;
+
+  /**
+   * 上一次生成的id的状态：(时间戳 - START_TIME) &lt;&lt; SEQUENCE_BITS | 序列号
+   * <p>
+   * 序列号用满时加1自然进位到下一毫秒
+   */
+  private final AtomicLong state = new AtomicLong();
+
+  /**
+   * 观察到的最大系统时间(减去START_TIME)，用于判断时钟回退
+   * <p>
+   * 批量预留会让state中的时间领先系统时间，不能再用它判断回退
+   */
+  private final AtomicLong lastClock = new AtomicLong();
+
+  /**
+   * 粗粒度时钟，为null时直接读取系统时间
+   */
+  private volatile CoarseClock clock;
+
+  /**
+   * 逻辑时间最多领先系统时间的毫秒数，0为不借用
+   */
+  private volatile long maxBorrowMillis;
+
+  /**
+   * 节点id有效期截止的毫秒数，超过后拒绝生成id，由{@link WorkerIdLease}维护
+   */
+  private volatile long validUntil = Long.MAX_VALUE;
+
+  /**
+   * 时钟回退次数，同一次回退只计一次
+   */
+  private final AtomicLong backwardsCount = new AtomicLong();
+
+  /**
+   * 最近一次计入回退时的lastClock
+   */
+  private final AtomicLong backwardsFrom = new AtomicLong(-1L);
+
+  /**
+   * 观察到的最大回退毫秒数
+   */
+  private final AtomicLong maxBackwardsMillis = new AtomicLong();
+
+  /**
+   * 使用领先系统时间的逻辑时间生成的次数
+   */
+  private final LongAdder borrowCount = new LongAdder();
+
+  /**
+   * 默认worker，未设置时按配置snowflake.workerId和snowflake.dataCenterId创建
+   */
+  private static volatile SnowflakeIdWorker defaultWorker;
 
   /**
    * 基于Snowflake创建分布式ID生成器
@@ -108,10 +169,70 @@ public class SnowflakeIdWorker {
 
     this.workerId = workerId;
     this.dataCenterId = dataCenterId;
+    this.nodeBits = (dataCenterId << DATACENTERID_SHIFT) | (workerId << WORKERID_SHIFT);
   }
 
   public void setClock(boolean clock) {
-    isClock = clock;
+    this.clock = clock ? CoarseClock.shared() : null;
+  }
+
+  /**
+   * 使用指定的粗粒度时钟
+   *
+   * @param clock 时钟，null时直接读取系统时间
+   */
+  void setClock(CoarseClock clock) {
+    this.clock = clock;
+  }
+
+  /**
+   * 设置逻辑时间最多领先系统时间的毫秒数
+   * <p>
+   * 不超过该范围的时钟回退和毫秒内序列用完时继续生成，id仍然单调递增；超出范围时与默认模式一样等待或抛出异常
+   *
+   * @param maxBorrowMillis 毫秒数，0为关闭
+   */
+  public void setMaxBorrowMillis(long maxBorrowMillis) {
+    if (maxBorrowMillis < 0) {
+      throw new IllegalArgumentException("maxBorrowMillis can't be less than 0");
+    }
+    this.maxBorrowMillis = maxBorrowMillis;
+  }
+
+  /**
+   * 逻辑时间领先系统时间的毫秒数
+   *
+   * @return 毫秒数，未领先时为0
+   */
+  public long getAheadMillis() {
+    return Math.max(0, (state.get() >>> SEQUENCE_BITS) - (this.timeGen() - START_TIME));
+  }
+
+  /**
+   * 观察到的时钟回退次数
+   *
+   * @return 次数
+   */
+  public long getBackwardsCount() {
+    return backwardsCount.get();
+  }
+
+  /**
+   * 观察到的最大回退毫秒数
+   *
+   * @return 毫秒数
+   */
+  public long getMaxBackwardsMillis() {
+    return maxBackwardsMillis.get();
+  }
+
+  /**
+   * 借用领先时间生成的次数，批量获取计一次
+   *
+   * @return 次数
+   */
+  public long getBorrowCount() {
+    return borrowCount.sum();
   }
 
   /**
@@ -120,147 +241,207 @@ public class SnowflakeIdWorker {
    * @return id
    */
   public static long defaultNextId() {
-    return InstanceHolder.INSTANCE.nextId();
+    return defaultWorker().nextId();
   }
 
   /**
-   * 获取id
+   * 获取默认worker
    *
-   * @return id
+   * @return worker
    */
-  public synchronized Long nextId() {
-    long timestamp = this.timeGen();
-
-    // 闰秒：如果当前时间小于上一次ID生成的时间戳，说明系统时钟回退过这个时候应当抛出异常
-    if (timestamp < lastTimestamp) {
-      long offset = lastTimestamp - timestamp;
-      if (offset <= 5) {
-        try {
-          this.wait(offset << 1);
-          timestamp = this.timeGen();
-          if (timestamp < lastTimestamp) {
-            throw new IllegalStateException(String.format(
-                "Clock moved backwards.  Refusing to generate id for %d milliseconds", offset));
-          }
-        } catch (Exception e) {
-          throw Exceptions.wrap(e);
+  public static SnowflakeIdWorker defaultWorker() {
+    SnowflakeIdWorker worker = defaultWorker;
+    if (worker == null) {
+      synchronized (SnowflakeIdWorker.class) {
+        worker = defaultWorker;
+        if (worker == null) {
+          int nodeId = new PropertyWorkerIdAssigner().acquire();
+          worker = new SnowflakeIdWorker(nodeId & MAX_WORKERID, nodeId >>> WORKERID_BITS);
+          defaultWorker = worker;
         }
-      } else {
-        throw new IllegalStateException(String
-            .format("Clock moved backwards.  Refusing to generate id for %d milliseconds", offset));
-      }
-    }
-
-    // 解决跨毫秒生成ID序列号始终为偶数的缺陷:如果是同一时间生成的，则进行毫秒内序列
-    if (lastTimestamp == timestamp) {
-      // 通过位与运算保证计算的结果范围始终是 0-4095
-      sequence = (sequence + 1) & SEQUENCE_MASK;
-      if (sequence == 0) {
-        timestamp = this.tilNextMillis(lastTimestamp);
       }
-    } else {
-      // 时间戳改变，毫秒内序列重置
-      sequence = 0L;
     }
+    return worker;
+  }
 
-    lastTimestamp = timestamp;
+  /**
+   * 设置默认worker，多实例部署时通过{@link WorkerIdLease}分配不重复的节点id
+   *
+   * @param worker worker
+   */
+  public static void setDefaultWorker(SnowflakeIdWorker worker) {
+    Checks.notNull(worker, "worker can not be null");
+    defaultWorker = worker;
+  }
 
-    /*
-     * 1.左移运算是为了将数值移动到对应的段(41、5、5，12那段因为本来就在最右，因此不用左移)
-     * 2.然后对每个左移后的值(la、lb、lc、sequence)做位或运算，是为了把各个短的数据合并起来，合并成一个二进制数 3.最后转换成10进制，就是最终生成的id
-     */
-    return ((timestamp - START_TIME) << TIMESTAMP_LEFT_SHIFT) | (dataCenterId << DATACENTERID_SHIFT)
-        | (workerId << WORKERID_SHIFT) | sequence;
+  /**
+   * 获取id
+   *
+   * @return id
+   */
+  public long nextId() {
+    return toId(reserve(1));
   }
 
   /**
-   * 保证返回的毫秒数在参数之后(阻塞到下一个毫秒，直到获得新的时间戳)
+   * 批量获取连续的id，只读取一次时钟、一次CAS
+   * <p>
+   * 超出当前毫秒剩余序列的部分顺延到后续毫秒，之后的获取会等待系统时间追上已预留的毫秒
    *
-   * @param lastTimestamp
-   * @return timestamp
+   * @param n 数量
+   * @return id
    */
-  private long tilNextMillis(long lastTimestamp) {
-    long timestamp = this.timeGen();
-    while (timestamp <= lastTimestamp) {
-      timestamp = this.timeGen();
+  public long[] nextIds(int n) {
+    if (n <= 0) {
+      throw new IllegalArgumentException("n should be positive");
+    }
+    long start = reserve(n);
+    long[] ids = new long[n];
+    for (int i = 0; i < n; i++) {
+      ids[i] = toId(start + i);
     }
-    return timestamp;
+    return ids;
   }
 
   /**
-   * 获得系统当前毫秒数
+   * 获取workerId
    *
-   * @return timestamp
+   * @return workerId
    */
-  private long timeGen() {
-    if (isClock) {
-      // 解决高并发下获取时间戳的性能问题
-      return SystemClock.now();
-    } else {
-      return System.currentTimeMillis();
-    }
+  public long getWorkerId() {
+    return workerId;
   }
 
   /**
-   * 高并发场景下System.currentTimeMillis()的性能问题的优化
-   * <p>
-   * System.currentTimeMillis()的调用比new一个普通对象要耗时的多（具体耗时高出多少我还没测试过，有人说是100倍左右）
-   * <p>
-   * System.currentTimeMillis()之所以慢是因为去跟系统打了一次交道
-   * <p>
-   * 后台定时更新时钟，JVM退出时，线程自动回收
-   * <p>
-   * 10亿：43410,206,210.72815533980582%
-   * <p>
-   * 1亿：4699,29,162.0344827586207%
-   * <p>
-   * 1000万：480,12,40.0%
-   * <p>
-   * 100万：50,10,5.0%
-   * 
+   * 获取dataCenterId
+   *
+   * @return dataCenterId
    */
-  static class SystemClock {
+  public long getDataCenterId() {
+    return dataCenterId;
+  }
 
-    private final long period;
-    private final AtomicLong now;
+  /**
+   * 设置节点id有效期，生成的id时间戳超过该时间时抛出异常
+   *
+   * @param validUntil 截止毫秒数
+   */
+  void setValidUntil(long validUntil) {
+    this.validUntil = validUntil;
+  }
 
-    private SystemClock(long period) {
-      this.period = period;
-      this.now = new AtomicLong(System.currentTimeMillis());
-      scheduleClockUpdating();
+  /**
+   * 预留n个连续的状态
+   *
+   * @param n 数量
+   * @return 第一个状态
+   */
+  private long reserve(int n) {
+    for (;;) {
+      long timestamp = currentTimestamp();
+      long current = state.get();
+      // 同一毫秒内序列号加1，否则从新毫秒的0开始
+      long start = Math.max(current + 1, timestamp << SEQUENCE_BITS);
+      long ahead = (start >>> SEQUENCE_BITS) - timestamp;
+      if (ahead > maxBorrowMillis) {
+        // 当前毫秒序列已用完或已被批量预留，等待时钟追上
+        Thread.yield();
+        continue;
+      }
+      long deadline = validUntil;
+      if (deadline != Long.MAX_VALUE
+          && ((start + n - 1) >>> SEQUENCE_BITS) + START_TIME > deadline) {
+        throw new IllegalStateException(String.format(
+            "Worker id lease expired at %d.  Refusing to generate id until renewed", deadline));
+      }
+      if (state.compareAndSet(current, start + n - 1)) {
+        if (ahead > 0) {
+          borrowCount.increment();
+        }
+        return start;
+      }
     }
+  }
 
-    private static class InstanceHolder {
-      private InstanceHolder() {}
-
-      public static final SystemClock INSTANCE = new SystemClock(1);
+  /**
+   * 获取减去START_TIME的当前时间，时钟回退时等待或抛出异常
+   *
+   * @return 时间
+   */
+  private long currentTimestamp() {
+    for (;;) {
+      // 先读lastClock再读时钟，避免读时钟后线程被挂起期间其他线程推进lastClock造成误判
+      long last = lastClock.get();
+      long timestamp = this.timeGen() - START_TIME;
+      if (timestamp >= last) {
+        if (timestamp > last) {
+          lastClock.compareAndSet(last, timestamp);
+        }
+        return timestamp;
+      }
+      // 闰秒：当前时间小于观察到的最大时间，说明系统时钟回退过
+      long offset = last - timestamp;
+      recordBackwards(last, offset);
+      if (offset <= maxBorrowMillis) {
+        return timestamp;
+      }
+      waitBackwards(offset);
     }
+  }
 
-    private static SystemClock instance() {
-      return InstanceHolder.INSTANCE;
+  private void recordBackwards(long last, long offset) {
+    long from = backwardsFrom.get();
+    if (from != last && backwardsFrom.compareAndSet(from, last)) {
+      backwardsCount.incrementAndGet();
     }
-
-    private void scheduleClockUpdating() {
-      ThreadUtils.newSecheduledExecutor(1, "System-Clock-Schedule")
-          .scheduleAtFixedRate(this::updateTimeMillis, period, period, TimeUnit.MILLISECONDS);
+    long max = maxBackwardsMillis.get();
+    while (offset > max && !maxBackwardsMillis.compareAndSet(max, offset)) {
+      max = maxBackwardsMillis.get();
     }
+  }
 
-    private void updateTimeMillis() {
-      now.set(System.currentTimeMillis());
-    }
+  /**
+   * 状态转换为id
+   * <p>
+   * 左移运算是为了将数值移动到对应的段(41、5、5，12那段因为本来就在最右，因此不用左移)，再与机器位做位或运算合并
+   *
+   * @param value 状态
+   * @return id
+   */
+  private long toId(long value) {
+    return ((value >>> SEQUENCE_BITS) << TIMESTAMP_LEFT_SHIFT) | nodeBits
+        | (value & SEQUENCE_MASK);
+  }
 
-    private long currentTimeMillis() {
-      return now.get();
+  /**
+   * 时钟回退不超过MAX_BACKWARD_MILLIS时不持有任何锁地等待，否则抛出异常
+   *
+   * @param offset 回退毫秒数
+   */
+  private void waitBackwards(long offset) {
+    if (offset > MAX_BACKWARD_MILLIS) {
+      throw new IllegalStateException(String
+          .format("Clock moved backwards.  Refusing to generate id for %d milliseconds", offset));
     }
-
-    public static long now() {
-      return instance().currentTimeMillis();
+    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(offset << 1));
+    if (Thread.currentThread().isInterrupted()) {
+      throw Exceptions.wrap(new InterruptedException("interrupted while waiting for clock"));
     }
+  }
 
-    public static String nowDate() {
-      return new Timestamp(instance().currentTimeMillis()).toString();
+  /**
+   * 获得系统当前毫秒数
+   *
+   * @return timestamp
+   */
+  long timeGen() {
+    CoarseClock current = clock;
+    if (current != null) {
+      // 解决高并发下获取时间戳的性能问题，读取未做单调处理的时间以便感知时钟回退
+      return current.rawMillis();
+    } else {
+      return System.currentTimeMillis();
     }
-
   }
 
 }
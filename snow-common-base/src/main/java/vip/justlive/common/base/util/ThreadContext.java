@@ -0,0 +1,400 @@
+/*
+ * Copyright (C) 2018 justlive1
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package vip.justlive.common.base.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 线程上下文
+ * <p>
+ * 当前线程持有一个不可变的键值快照，写入时复制，因此捕获上下文只是读取引用，不需要逐任务复制map。<br>
+ * 通过{@link #wrap(Executor)}等装饰线程池，提交任务时捕获上下文，执行时还原并在结束后恢复执行线程原有的上下文，
+ * 线程池线程不会残留上一个任务的值
+ *
+ * @author wubo
+ */
+public final class ThreadContext {
+
+  private static final Snapshot EMPTY = new Snapshot(Collections.emptyMap());
+  private static final ThreadLocal<Snapshot> CURRENT = new ThreadLocal<>();
+
+  private ThreadContext() {}
+
+  /**
+   * 写入值，value为null时删除
+   *
+   * @param key 键
+   * @param value 值
+   */
+  public static void put(String key, Object value) {
+    Snapshot current = capture();
+    if (value == null && !current.values.containsKey(key)) {
+      return;
+    }
+    Map<String, Object> values = new HashMap<>(current.values);
+    if (value == null) {
+      values.remove(key);
+    } else {
+      values.put(key, value);
+    }
+    attach(values.isEmpty() ? EMPTY : new Snapshot(Collections.unmodifiableMap(values)));
+  }
+
+  /**
+   * 获取值
+   *
+   * @param key 键
+   * @param <T> 泛型
+   * @return 值
+   */
+  @SuppressWarnings("unchecked")
+  public static <T> T get(String key) {
+    Snapshot current = CURRENT.get();
+    if (current == null) {
+      return null;
+    }
+    return (T) current.values.get(key);
+  }
+
+  /**
+   * 删除值
+   *
+   * @param key 键
+   */
+  public static void remove(String key) {
+    put(key, null);
+  }
+
+  /**
+   * 清空当前线程上下文
+   */
+  public static void clear() {
+    CURRENT.remove();
+  }
+
+  /**
+   * 清除指定前缀的值，其它值保留
+   *
+   * @param prefix 键前缀
+   */
+  public static void clear(String prefix) {
+    Checks.notNull(prefix, "prefix can not be null");
+    Snapshot current = CURRENT.get();
+    if (current == null) {
+      return;
+    }
+    Map<String, Object> values = new HashMap<>(current.values);
+    if (values.keySet().removeIf(key -> key.startsWith(prefix))) {
+      attach(values.isEmpty() ? EMPTY : new Snapshot(Collections.unmodifiableMap(values)));
+    }
+  }
+
+  /**
+   * 捕获当前线程上下文
+   *
+   * @return 快照
+   */
+  public static Snapshot capture() {
+    Snapshot current = CURRENT.get();
+    return current == null ? EMPTY : current;
+  }
+
+  /**
+   * 设置当前线程上下文
+   *
+   * @param snapshot 快照
+   * @return 之前的上下文，用于恢复
+   */
+  public static Snapshot attach(Snapshot snapshot) {
+    Snapshot previous = capture();
+    if (snapshot == null || snapshot == EMPTY) {
+      CURRENT.remove();
+    } else {
+      CURRENT.set(snapshot);
+    }
+    return previous;
+  }
+
+  /**
+   * 包装任务，执行时使用当前线程的上下文
+   *
+   * @param task 任务
+   * @return 包装任务
+   */
+  public static Runnable wrap(Runnable task) {
+    Checks.notNull(task);
+    Snapshot snapshot = capture();
+    return () -> {
+      Snapshot previous = attach(snapshot);
+      try {
+        task.run();
+      } finally {
+        attach(previous);
+      }
+    };
+  }
+
+  /**
+   * 包装任务，执行时使用当前线程的上下文
+   *
+   * @param task 任务
+   * @param <T> 泛型
+   * @return 包装任务
+   */
+  public static <T> Callable<T> wrap(Callable<T> task) {
+    Checks.notNull(task);
+    Snapshot snapshot = capture();
+    return () -> {
+      Snapshot previous = attach(snapshot);
+      try {
+        return task.call();
+      } finally {
+        attach(previous);
+      }
+    };
+  }
+
+  /**
+   * 装饰Executor，提交的任务携带提交线程的上下文
+   *
+   * @param executor 执行器
+   * @return 装饰后的执行器
+   */
+  public static Executor wrap(Executor executor) {
+    Checks.notNull(executor);
+    if (executor instanceof ExecutorService) {
+      return wrap((ExecutorService) executor);
+    }
+    return task -> executor.execute(wrap(task));
+  }
+
+  /**
+   * 装饰ExecutorService，提交的任务携带提交线程的上下文
+   *
+   * @param executor 线程池
+   * @return 装饰后的线程池
+   */
+  public static ExecutorService wrap(ExecutorService executor) {
+    Checks.notNull(executor);
+    if (executor instanceof ScheduledExecutorService) {
+      return wrap((ScheduledExecutorService) executor);
+    }
+    if (executor instanceof ContextExecutorService) {
+      return executor;
+    }
+    return new ContextExecutorService<>(executor);
+  }
+
+  /**
+   * 装饰ScheduledExecutorService，提交的任务携带提交线程的上下文
+   *
+   * @param executor 定时任务池
+   * @return 装饰后的定时任务池
+   */
+  public static ScheduledExecutorService wrap(ScheduledExecutorService executor) {
+    Checks.notNull(executor);
+    if (executor instanceof ContextScheduledExecutorService) {
+      return executor;
+    }
+    return new ContextScheduledExecutorService(executor);
+  }
+
+  private static <T> List<Callable<T>> wrapAll(Collection<? extends Callable<T>> tasks) {
+    List<Callable<T>> wrapped = new ArrayList<>(tasks.size());
+    for (Callable<T> task : tasks) {
+      wrapped.add(wrap(task));
+    }
+    return wrapped;
+  }
+
+  /**
+   * 上下文快照，不可变
+   */
+  public static final class Snapshot {
+
+    private final Map<String, Object> values;
+
+    Snapshot(Map<String, Object> values) {
+      this.values = values;
+    }
+
+    /**
+     * 快照内容，只读
+     *
+     * @return 键值
+     */
+    public Map<String, Object> values() {
+      return values;
+    }
+
+    @Override
+    public String toString() {
+      return "Snapshot" + values;
+    }
+  }
+
+  private static class ContextExecutorService<E extends ExecutorService>
+      implements ExecutorService {
+
+    final E delegate;
+
+    ContextExecutorService(E delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+      delegate.execute(wrap(command));
+    }
+
+    @Override
+    public void shutdown() {
+      delegate.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+      return delegate.shutdownNow();
+    }
+
+    @Override
+    public boolean isShutdown() {
+      return delegate.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+      return delegate.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+      return delegate.awaitTermination(timeout, unit);
+    }
+
+    @Override
+    public <T> Future<T> submit(Callable<T> task) {
+      return delegate.submit(wrap(task));
+    }
+
+    @Override
+    public <T> Future<T> submit(Runnable task, T result) {
+      return delegate.submit(wrap(task), result);
+    }
+
+    @Override
+    public Future<?> submit(Runnable task) {
+      return delegate.submit(wrap(task));
+    }
+
+    @Override
+    public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks)
+        throws InterruptedException {
+      return delegate.invokeAll(wrapAll(tasks));
+    }
+
+    @Override
+    public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks, long timeout,
+        TimeUnit unit) throws InterruptedException {
+      return delegate.invokeAll(wrapAll(tasks), timeout, unit);
+    }
+
+    @Override
+    public <T> T invokeAny(Collection<? extends Callable<T>> tasks)
+        throws InterruptedException, ExecutionException {
+      return delegate.invokeAny(wrapAll(tasks));
+    }
+
+    @Override
+    public <T> T invokeAny(Collection<? extends Callable<T>> tasks, long timeout, TimeUnit unit)
+        throws InterruptedException, ExecutionException, TimeoutException {
+      return delegate.invokeAny(wrapAll(tasks), timeout, unit);
+    }
+  }
+
+  private static class ContextScheduledExecutorService
+      extends ContextExecutorService<ScheduledExecutorService>
+      implements ScheduledExecutorService {
+
+    ContextScheduledExecutorService(ScheduledExecutorService delegate) {
+      super(delegate);
+    }
+
+    @Override
+    public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+      return delegate.schedule(wrap(command), delay, unit);
+    }
+
+    @Override
+    public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+      return delegate.schedule(wrap(callable), delay, unit);
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay,
+        long period, TimeUnit unit) {
+      return delegate.scheduleAtFixedRate(wrap(command), initialDelay, period, unit);
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay,
+        long delay, TimeUnit unit) {
+      return delegate.scheduleWithFixedDelay(wrap(command), initialDelay, delay, unit);
+    }
+  }
+
+  /**
+   * 存储在线程上下文中的ThreadLocal，值随上下文传递到装饰过的线程池
+   *
+   * @param <T> 泛型
+   */
+  public static class ContextLocal<T> extends ThreadLocal<T> {
+
+    private final String key;
+
+    public ContextLocal(String key) {
+      Checks.notNull(key, "key can not be null");
+      this.key = key;
+    }
+
+    @Override
+    public T get() {
+      return ThreadContext.get(key);
+    }
+
+    @Override
+    public void set(T value) {
+      ThreadContext.put(key, value);
+    }
+
+    @Override
+    public void remove() {
+      ThreadContext.remove(key);
+    }
+  }
+}
@@ -13,9 +13,11 @@
  */
 package vip.justlive.common.base.util;
 
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ScheduledExecutorService;
@@ -23,9 +25,6 @@ import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
-import lombok.AllArgsConstructor;
-import lombok.NonNull;
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
 /**
@@ -37,22 +36,24 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public class ThreadUtils {
 
-  private static final ThreadLocal<Map<String, Object>> LOCAL =
-      ThreadLocal.withInitial(ConcurrentHashMap::new);
-
   private static final ThreadPoolExecutor INNER_EXECUTOR =
       newThreadPool(5, 10, 20, 1000, "retry-%d");
 
+  /**
+   * 线程存储键前缀，与其它上下文值隔离
+   */
+  private static final String VAL_PREFIX = "ThreadUtils.";
+
   ThreadUtils() {}
 
   /**
-   * 线程存储键值
+   * 线程存储键值，通过{@link ThreadContext#wrap(ExecutorService)}装饰的线程池会传递到任务线程
    * 
    * @param key 键
    * @param value 值
    */
   public static void putVal(String key, Object value) {
-    LOCAL.get().put(key, value);
+    ThreadContext.put(VAL_PREFIX + key, value);
   }
 
   /**
@@ -62,16 +63,15 @@ public class ThreadUtils {
    * @param <T> 泛型类
    * @return 值
    */
-  @SuppressWarnings("unchecked")
   public static <T> T getVal(String key) {
-    return (T) LOCAL.get().get(key);
+    return ThreadContext.get(VAL_PREFIX + key);
   }
 
   /**
-   * 清除线程存储值
+   * 清除线程存储值，不影响{@link ThreadContext}中其它的值
    */
   public static void clear() {
-    LOCAL.remove();
+    ThreadContext.clear(VAL_PREFIX);
   }
 
   /**
@@ -109,6 +109,41 @@ public class ThreadUtils {
         new ThreadFactoryBuilder().setNameFormat(nameFormat).setDaemon(true).build(), handler);
   }
 
+  /**
+   * 构造可观测、可动态调整的线程池
+   *
+   * @param corePoolSize 线程数
+   * @param maxPoolSize 最大线程数
+   * @param keepAliveSeconds 空闲线程等待时间
+   * @param queueCapacity 队列大小
+   * @param nameFormat 线程名称format
+   * @return 线程池
+   */
+  public static InstrumentedThreadPoolExecutor newInstrumentedThreadPool(int corePoolSize,
+      int maxPoolSize, int keepAliveSeconds, int queueCapacity, String nameFormat) {
+    return newInstrumentedThreadPool(corePoolSize, maxPoolSize, keepAliveSeconds, queueCapacity,
+        nameFormat, new ThreadPoolExecutor.AbortPolicy());
+  }
+
+  /**
+   * 构造可观测、可动态调整的线程池
+   *
+   * @param corePoolSize 线程数
+   * @param maxPoolSize 最大线程数
+   * @param keepAliveSeconds 空闲线程等待时间
+   * @param queueCapacity 队列大小
+   * @param nameFormat 线程名称format
+   * @param handler 拒绝策略
+   * @return 线程池
+   */
+  public static InstrumentedThreadPoolExecutor newInstrumentedThreadPool(int corePoolSize,
+      int maxPoolSize, int keepAliveSeconds, int queueCapacity, String nameFormat,
+      RejectedExecutionHandler handler) {
+    return new InstrumentedThreadPoolExecutor(corePoolSize, maxPoolSize, keepAliveSeconds,
+        queueCapacity, nameFormat,
+        new ThreadFactoryBuilder().setNameFormat(nameFormat).setDaemon(true).build(), handler);
+  }
+
   /**
    * 构造定时任务池
    * 
@@ -139,52 +174,111 @@ public class ThreadUtils {
    * 重试任务
    *
    * @param callable 任务
-   * @param limit 重试限制次数
+   * @param limit 最多执行次数，小于1时按1次执行
    */
   public static void retry(Callable<?> callable, int limit) {
-    INNER_EXECUTOR.submit(new RetryTask(--limit, callable));
+    retryAsync(callable, limit);
   }
 
   /**
    * 重试任务
    *
    * @param callable 任务
-   * @param limit 重试限制次数
+   * @param limit 最多执行次数，小于1时按1次执行
    * @param failCall 重试失败回调
    */
   public static void retry(Callable<?> callable, int limit, Callable<?> failCall) {
-    INNER_EXECUTOR.submit(new RetryTask(--limit, callable, failCall));
-  }
-
-
-  @AllArgsConstructor
-  @RequiredArgsConstructor
-  private static class RetryTask implements Callable<Boolean> {
-
-    @NonNull
-    private Integer limit;
-    @NonNull
-    private Callable<?> callable;
-    private Callable<?> failCall;
-
-    @Override
-    public Boolean call() throws Exception {
-      log.info("重试任务开始，{}, limit:[{}]", callable, limit);
-      try {
-        callable.call();
-        return true;
-      } catch (Exception e) {
-        if (limit > 0) {
-          log.error("重试任务-任务失败-重试剩余次数-{}", limit, e);
-          INNER_EXECUTOR.submit(new RetryTask(--limit, callable, failCall));
-        } else {
-          log.error("重试任务-任务失败-重试超限", e);
-          if (failCall != null) {
+    retryAsync(callable, limit, failCall);
+  }
+
+  /**
+   * 重试任务，失败后按默认退避策略延迟重试
+   *
+   * @param callable 任务
+   * @param limit 最多执行次数，小于1时按1次执行
+   * @param <T> 泛型
+   * @return 最终结果
+   */
+  public static <T> CompletableFuture<T> retryAsync(Callable<T> callable, int limit) {
+    return retry(callable, RetryPolicy.builder().maxAttempts(Math.max(1, limit)).build());
+  }
+
+  /**
+   * 重试任务，失败后按默认退避策略延迟重试
+   *
+   * @param callable 任务
+   * @param limit 最多执行次数，小于1时按1次执行
+   * @param failCall 重试失败回调
+   * @param <T> 泛型
+   * @return 最终结果
+   */
+  public static <T> CompletableFuture<T> retryAsync(Callable<T> callable, int limit,
+      Callable<?> failCall) {
+    CompletableFuture<T> future = retryAsync(callable, limit);
+    if (failCall != null) {
+      future.whenComplete((r, e) -> {
+        if (e != null) {
+          try {
             failCall.call();
+          } catch (Exception ex) {
+            log.error("重试任务-失败回调异常", ex);
           }
         }
-      }
-      return false;
+      });
     }
+    return future;
+  }
+
+  /**
+   * 按策略重试任务
+   *
+   * @param callable 任务
+   * @param policy 重试策略
+   * @param <T> 泛型
+   * @return 最终结果
+   */
+  public static <T> CompletableFuture<T> retry(Callable<T> callable, RetryPolicy policy) {
+    return RetryHolder.SCHEDULER.submit(callable, policy);
+  }
+
+  /**
+   * 并行执行任务，共用截止时间，任一失败或超时取消其余任务
+   *
+   * @param tasks 任务
+   * @param timeout 截止时间
+   * @param unit 单位
+   * @param <T> 泛型
+   * @return 按任务顺序的结果
+   * @see FanOut
+   */
+  public static <T> List<T> fanOut(List<? extends Callable<? extends T>> tasks, long timeout,
+      TimeUnit unit) {
+    return FanOut.invokeAll(tasks, timeout, unit);
+  }
+
+  /**
+   * 并行执行任务，共用截止时间，任一失败或超时取消其余任务
+   *
+   * @param timeout 截止时间
+   * @param unit 单位
+   * @param tasks 任务
+   * @param <T> 泛型
+   * @return 按任务顺序的结果
+   * @see FanOut
+   */
+  @SafeVarargs
+  public static <T> List<T> fanOut(long timeout, TimeUnit unit,
+      Callable<? extends T>... tasks) {
+    List<Callable<? extends T>> list = new ArrayList<>(tasks.length);
+    for (Callable<? extends T> task : tasks) {
+      list.add(task);
+    }
+    return FanOut.invokeAll(list, timeout, unit);
+  }
+
+  private static class RetryHolder {
+
+    static final RetryScheduler SCHEDULER = new RetryScheduler(INNER_EXECUTOR,
+        newSecheduledExecutor(1, "retry-scheduler-%d"), 1000);
   }
 }
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2018 justlive1
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package vip.justlive.common.base.util;
+
+/**
+ * 雪花算法节点id分配
+ * <p>
+ * 节点id范围为0~1023，高5位为dataCenterId，低5位为workerId；实现需保证同一时刻一个节点id只分配给一个进程
+ *
+ * @author wubo
+ */
+public interface WorkerIdAssigner {
+
+  /**
+   * 节点id上限
+   */
+  int MAX_NODE_ID = 1 << 10;
+
+  /**
+   * 租约有效期（毫秒），超过有效期未续约时节点id可能被其他进程获取
+   *
+   * @return 有效期，-1为不会过期
+   */
+  default long leaseMillis() {
+    return -1L;
+  }
+
+  /**
+   * 获取节点id
+   *
+   * @return 节点id
+   * @throws IllegalStateException 没有可用的节点id
+   */
+  int acquire();
+
+  /**
+   * 续约
+   *
+   * @param nodeId 节点id
+   * @return false为租约已丢失
+   */
+  boolean renew(int nodeId);
+
+  /**
+   * 释放
+   *
+   * @param nodeId 节点id
+   */
+  void release(int nodeId);
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2018 justlive1
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package vip.justlive.common.base.util;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 节点id租约，获取节点id并在后台定时续约
+ * <p>
+ * 续约失败说明节点id可能已被其他进程获取，此时重新获取节点id并切换到新的SnowflakeIdWorker。<br>
+ * 分配方式有租约有效期时，worker只在最近一次成功续约的时间加有效期减去安全余量之前生成id，
+ * 超过后抛出异常直到续约成功或重新获取节点id，避免续约异常期间节点id被其他进程接管后生成重复id
+ * 
+ * <pre>
+ * {@code
+ *   WorkerIdLease lease = WorkerIdLease.start(new FileLockWorkerIdAssigner(dir), 10, TimeUnit.SECONDS);
+ *   lease.installAsDefault();
+ *   long id = SnowflakeIdWorker.defaultNextId();
+ * }
+ * </pre>
+ *
+ * @author wubo
+ */
+@Slf4j
+public class WorkerIdLease implements AutoCloseable {
+
+  private static final ScheduledExecutorService RENEW_EXECUTOR =
+      ThreadUtils.newSecheduledExecutor(1, "WorkerId-Lease-Renew-%d");
+
+  private final WorkerIdAssigner assigner;
+  private final long leaseMillis;
+  private final ScheduledFuture<?> renewTask;
+  private volatile int nodeId;
+  private volatile SnowflakeIdWorker worker;
+  private volatile boolean installed;
+  private volatile boolean closed;
+
+  private WorkerIdLease(WorkerIdAssigner assigner, long renewInterval, TimeUnit unit) {
+    this.assigner = assigner;
+    this.leaseMillis = assigner.leaseMillis();
+    long start = System.currentTimeMillis();
+    switchTo(assigner.acquire(), start);
+    this.renewTask =
+        RENEW_EXECUTOR.scheduleWithFixedDelay(this::renew, renewInterval, renewInterval, unit);
+  }
+
+  /**
+   * 获取节点id并开始定时续约
+   *
+   * @param assigner 分配方式
+   * @param renewInterval 续约间隔，需小于租约有效期减去安全余量
+   * @param unit 单位
+   * @return 租约
+   */
+  public static WorkerIdLease start(WorkerIdAssigner assigner, long renewInterval,
+      TimeUnit unit) {
+    Checks.notNull(assigner, "assigner can not be null");
+    Checks.notNull(unit, "unit can not be null");
+    if (renewInterval <= 0) {
+      throw new IllegalArgumentException("renewInterval should be positive");
+    }
+    long leaseMillis = assigner.leaseMillis();
+    if (leaseMillis > 0 && unit.toMillis(renewInterval) >= leaseMillis - margin(leaseMillis)) {
+      throw new IllegalArgumentException(String.format(
+          "renewInterval should be less than %dms", leaseMillis - margin(leaseMillis)));
+    }
+    return new WorkerIdLease(assigner, renewInterval, unit);
+  }
+
+  /**
+   * 设置为SnowflakeIdWorker的默认worker，重新获取节点id后同步更新
+   */
+  public void installAsDefault() {
+    installed = true;
+    SnowflakeIdWorker.setDefaultWorker(worker);
+  }
+
+  /**
+   * 当前节点id
+   *
+   * @return 节点id
+   */
+  public int getNodeId() {
+    return nodeId;
+  }
+
+  /**
+   * 当前节点id对应的worker
+   *
+   * @return worker
+   */
+  public SnowflakeIdWorker getWorker() {
+    return worker;
+  }
+
+  /**
+   * 获取id
+   *
+   * @return id
+   */
+  public long nextId() {
+    return worker.nextId();
+  }
+
+  /**
+   * 停止续约并释放节点id
+   */
+  @Override
+  public void close() {
+    closed = true;
+    renewTask.cancel(false);
+    worker.setValidUntil(Long.MIN_VALUE);
+    assigner.release(nodeId);
+  }
+
+  private void renew() {
+    if (closed) {
+      return;
+    }
+    long start = System.currentTimeMillis();
+    try {
+      if (assigner.renew(nodeId)) {
+        worker.setValidUntil(validUntil(start));
+        return;
+      }
+      // 租约已丢失，先停止生成id再重新获取
+      worker.setValidUntil(Long.MIN_VALUE);
+      log.warn("worker id [{}] lease lost, acquiring a new one", nodeId);
+      assigner.release(nodeId);
+      start = System.currentTimeMillis();
+      switchTo(assigner.acquire(), start);
+    } catch (Exception e) {
+      log.error("renew worker id [{}] error, id generation stops after lease expires", nodeId,
+          e);
+    }
+  }
+
+  private long validUntil(long grantedAt) {
+    if (leaseMillis <= 0) {
+      return Long.MAX_VALUE;
+    }
+    return grantedAt + leaseMillis - margin(leaseMillis);
+  }
+
+  /**
+   * 安全余量，预留有效期的1/5应对节点间时钟偏差
+   */
+  private static long margin(long leaseMillis) {
+    return leaseMillis / 5;
+  }
+
+  private void switchTo(int newNodeId, long grantedAt) {
+    if (worker != null && newNodeId == nodeId) {
+      // 重新获取到相同节点id时沿用原worker，新建worker会从0开始，可能重复签发原worker已预留的id
+      worker.setValidUntil(validUntil(grantedAt));
+      return;
+    }
+    SnowflakeIdWorker newWorker = new SnowflakeIdWorker(newNodeId & 31, newNodeId >>> 5);
+    newWorker.setValidUntil(validUntil(grantedAt));
+    this.nodeId = newNodeId;
+    this.worker = newWorker;
+    if (installed) {
+      SnowflakeIdWorker.setDefaultWorker(newWorker);
+    }
+  }
+}
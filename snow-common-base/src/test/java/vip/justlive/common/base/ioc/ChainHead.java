@@ -0,0 +1,16 @@
+package vip.justlive.common.base.ioc;
+
+import vip.justlive.common.base.annotation.Inject;
+import vip.justlive.common.base.annotation.Singleton;
+
+@Singleton
+public class ChainHead {
+
+  final ChainLazy lazy;
+
+  @Inject
+  public ChainHead(ChainLazy lazy) {
+    this.lazy = lazy;
+  }
+
+}
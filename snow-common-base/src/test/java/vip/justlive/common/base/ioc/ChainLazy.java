@@ -0,0 +1,18 @@
+package vip.justlive.common.base.ioc;
+
+import vip.justlive.common.base.annotation.Inject;
+import vip.justlive.common.base.annotation.Lazy;
+import vip.justlive.common.base.annotation.Singleton;
+
+@Lazy
+@Singleton
+public class ChainLazy {
+
+  final ChainTail tail;
+
+  @Inject
+  public ChainLazy(ChainTail tail) {
+    this.tail = tail;
+  }
+
+}
@@ -0,0 +1,8 @@
+package vip.justlive.common.base.ioc;
+
+import vip.justlive.common.base.annotation.Singleton;
+
+@Singleton
+public class ChainTail {
+
+}
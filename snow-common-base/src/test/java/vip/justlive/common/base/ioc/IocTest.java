@@ -1,7 +1,10 @@
 package vip.justlive.common.base.ioc;
 
+import java.util.Arrays;
+import java.util.List;
 import org.junit.Assert;
 import org.junit.Test;
+import vip.justlive.common.base.annotation.Inject;
 
 public class IocTest {
 
@@ -12,6 +15,254 @@ public class IocTest {
 
     Assert.assertNotNull(BeanStore.getBean(Inter.class));
 
+    // 冻结索引：类型下按注册顺序，Configuration的bean先于Singleton注册
+    List<Inter> inters = BeanStore.getBeans(Inter.class);
+    Assert.assertEquals(2, inters.size());
+    Assert.assertTrue(inters.get(0) instanceof NoDepBean);
+    Assert.assertTrue(inters.get(1) instanceof DepBean);
+    Assert.assertSame(inters.get(0), BeanStore.getBean(Inter.class));
+    Assert.assertSame(inters.get(1), BeanStore.getBean("xxx", Inter.class));
+
+    // 延迟单例在首次获取时实例，原型每次获取新实例
+    Assert.assertEquals(0, LazyBean.CREATED.get());
+    UsesLazy usesLazy = BeanStore.getBean(UsesLazy.class);
+    Assert.assertNotNull(usesLazy.protoBean);
+    Assert.assertEquals(0, LazyBean.CREATED.get());
+    Assert.assertSame(usesLazy.lazyBean.get(), BeanStore.getBean(LazyBean.class));
+    Assert.assertEquals(1, LazyBean.CREATED.get());
+    Assert.assertNotSame(usesLazy.protoBean, BeanStore.getBean(ProtoBean.class));
+
+    // 直接注入延迟单例，其依赖的单例先于注入方实例
+    ChainHead head = BeanStore.getBean(ChainHead.class);
+    Assert.assertSame(head.lazy, BeanStore.getBean(ChainLazy.class));
+    Assert.assertSame(head.lazy.tail, BeanStore.getBean(ChainTail.class));
+
+  }
+
+  @Test
+  public void test2() {
+
+    BeanGraph graph = new BeanGraph();
+    graph.add(CycleA.class, "a");
+    graph.add(CycleB.class, CycleB.class.getName());
+    graph.add(NoDepBean.class, NoDepBean.class.getName());
+    try {
+      graph.levels(new ConstructorStrategy());
+      Assert.fail();
+    } catch (IllegalStateException e) {
+      Assert.assertTrue(e.getMessage().contains("CycleB"));
+      Assert.assertTrue(e.getMessage().contains("a(" + CycleA.class.getName() + ")"));
+    }
+
+    graph.clear();
+    graph.add(DepBean.class, "xxx");
+    graph.add(NoDepBean.class, NoDepBean.class.getName());
+    Assert.assertEquals(
+        Arrays.asList(Arrays.asList(NoDepBean.class), Arrays.asList(DepBean.class)),
+        graph.levels(new ConstructorStrategy()));
+
+    // 互不依赖的bean在同一层
+    graph.add(Conf.class, Conf.class.getName());
+    List<List<Class<?>>> levels = graph.levels(new ConstructorStrategy());
+    Assert.assertEquals(2, levels.size());
+    Assert.assertEquals(Arrays.asList(NoDepBean.class, Conf.class), levels.get(0));
+
+  }
+
+  @Test
+  public void test3() {
+
+    MethodHandleStrategy strategy = new MethodHandleStrategy();
+    Assert.assertTrue(strategy.instance(NoDepBean.class) instanceof NoDepBean);
+
+    Leaf leaf = new Leaf();
+    BeanStore.putBean("leaf", leaf);
+    Root root = (Root) strategy.instance(Root.class);
+    Assert.assertSame(leaf, root.leaf);
+    Assert.assertNotSame(root, strategy.instance(Root.class));
+    Assert.assertEquals(1, strategy.dependencies(Root.class).length);
+
+    try {
+      strategy.instance(Broken.class);
+      Assert.fail();
+    } catch (IllegalArgumentException e) {
+      Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+
+  }
+
+  @Test
+  public void test4() {
+
+    // 缺失非必须依赖时只对该bean按非必须重试，不修改共享策略
+    Strategy strategy = Ioc.getStrategy();
+    Assert.assertTrue(strategy.isRequired());
+    Assert.assertNull(strategy.instance(Optional.class, true));
+    Optional optional = (Optional) Ioc.instance(Optional.class, "optional");
+    Assert.assertNull(optional.missing);
+    Assert.assertTrue(strategy.isRequired());
+
+  }
+
+  @Test
+  public void test5() {
+
+    // 延迟和原型bean的依赖作为注入方的传递依赖
+    BeanGraph graph = new BeanGraph();
+    graph.add(ChainHead.class, ChainHead.class.getName());
+    graph.addFactory(ChainLazy.class, ChainLazy.class.getName());
+    graph.add(ChainTail.class, ChainTail.class.getName());
+    List<List<Class<?>>> levels = graph.levels(new ConstructorStrategy());
+    Assert.assertEquals(Arrays.asList(Arrays.asList(ChainTail.class),
+        Arrays.asList(ChainHead.class)), levels);
+
+    // 经由延迟bean的循环依赖
+    graph.clear();
+    graph.add(CycleA.class, "a");
+    graph.addFactory(CycleB.class, "b");
+    try {
+      graph.levels(new ConstructorStrategy());
+      Assert.fail();
+    } catch (IllegalStateException e) {
+      Assert.assertTrue(e.getMessage(), e.getMessage()
+          .contains("a(" + CycleA.class.getName() + ") -> b(" + CycleB.class.getName() + ")"));
+    }
+
+  }
+
+  @Test
+  public void test6() {
+
+    // 层内按扫描顺序，与依赖的完成顺序无关
+    BeanGraph graph = new BeanGraph();
+    graph.add(Mid1.class, Mid1.class.getName());
+    graph.add(Mid2.class, Mid2.class.getName());
+    graph.add(Mid3.class, Mid3.class.getName());
+    graph.add(Top.class, Top.class.getName());
+    graph.add(Base3.class, Base3.class.getName());
+    graph.add(Base2.class, Base2.class.getName());
+    graph.add(Base1.class, Base1.class.getName());
+    List<List<Class<?>>> levels = graph.levels(new ConstructorStrategy());
+    Assert.assertEquals(Arrays.asList(Arrays.asList(Base3.class, Base2.class, Base1.class),
+        Arrays.asList(Mid1.class, Mid2.class, Mid3.class), Arrays.asList(Top.class)), levels);
+
+    // 并行实例，每层全部完成后再注册，下一层注入的是已注册的bean
+    Ioc.ioc(graph, 4);
+    Top top = BeanStore.getBean(Top.class);
+    Mid1 mid1 = BeanStore.getBean(Mid1.class);
+    Mid2 mid2 = BeanStore.getBean(Mid2.class);
+    Mid3 mid3 = BeanStore.getBean(Mid3.class);
+    Assert.assertSame(mid1, top.mid1);
+    Assert.assertSame(mid2, top.mid2);
+    Assert.assertSame(mid3, top.mid3);
+    Assert.assertSame(BeanStore.getBean(Base1.class), mid1.base1);
+    Assert.assertSame(BeanStore.getBean(Base2.class), mid1.base2);
+    Assert.assertSame(BeanStore.getBean(Base2.class), mid2.base2);
+    Assert.assertSame(BeanStore.getBean(Base3.class), mid2.base3);
+    Assert.assertSame(BeanStore.getBean(Base3.class), mid3.base3);
+
+  }
+
+  public static class Base1 {
+  }
+
+  public static class Base2 {
+  }
+
+  public static class Base3 {
+  }
+
+  public static class Mid1 {
+
+    final Base1 base1;
+    final Base2 base2;
+
+    @Inject
+    public Mid1(Base1 base1, Base2 base2) {
+      this.base1 = base1;
+      this.base2 = base2;
+    }
+  }
+
+  public static class Mid2 {
+
+    final Base2 base2;
+    final Base3 base3;
+
+    @Inject
+    public Mid2(Base2 base2, Base3 base3) {
+      this.base2 = base2;
+      this.base3 = base3;
+    }
+  }
+
+  public static class Mid3 {
+
+    final Base3 base3;
+
+    @Inject
+    public Mid3(Base3 base3) {
+      this.base3 = base3;
+    }
+  }
+
+  public static class Top {
+
+    final Mid1 mid1;
+    final Mid2 mid2;
+    final Mid3 mid3;
+
+    @Inject
+    public Top(Mid1 mid1, Mid2 mid2, Mid3 mid3) {
+      this.mid1 = mid1;
+      this.mid2 = mid2;
+      this.mid3 = mid3;
+    }
+  }
+
+  public static class Leaf {
+  }
+
+  public static class Missing {
+  }
+
+  public static class Optional {
+
+    final Missing missing;
+
+    @Inject(required = false)
+    public Optional(Missing missing) {
+      this.missing = missing;
+    }
+  }
+
+  public static class Root {
+
+    final Leaf leaf;
+
+    @Inject
+    public Root(Leaf leaf) {
+      this.leaf = leaf;
+    }
+  }
+
+  public static class Broken {
+
+    public Broken() {
+      throw new IllegalStateException("broken");
+    }
+  }
+
+  public static class CycleA {
+
+    @Inject
+    public CycleA(CycleB b) {}
+  }
+
+  public static class CycleB {
+
+    @Inject
+    public CycleB(CycleA a) {}
   }
 
 }
@@ -0,0 +1,17 @@
+package vip.justlive.common.base.ioc;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import vip.justlive.common.base.annotation.Lazy;
+import vip.justlive.common.base.annotation.Singleton;
+
+@Lazy
+@Singleton
+public class LazyBean {
+
+  static final AtomicInteger CREATED = new AtomicInteger();
+
+  public LazyBean() {
+    CREATED.incrementAndGet();
+  }
+
+}
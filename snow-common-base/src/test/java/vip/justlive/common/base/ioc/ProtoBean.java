@@ -0,0 +1,8 @@
+package vip.justlive.common.base.ioc;
+
+import vip.justlive.common.base.annotation.Prototype;
+
+@Prototype
+public class ProtoBean {
+
+}
@@ -0,0 +1,19 @@
+package vip.justlive.common.base.ioc;
+
+import java.util.function.Supplier;
+import vip.justlive.common.base.annotation.Inject;
+import vip.justlive.common.base.annotation.Singleton;
+
+@Singleton
+public class UsesLazy {
+
+  final Supplier<LazyBean> lazyBean;
+  final ProtoBean protoBean;
+
+  @Inject
+  public UsesLazy(Supplier<LazyBean> lazyBean, ProtoBean protoBean) {
+    this.lazyBean = lazyBean;
+    this.protoBean = protoBean;
+  }
+
+}
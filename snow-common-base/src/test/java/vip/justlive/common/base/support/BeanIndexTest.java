@@ -0,0 +1,81 @@
+package vip.justlive.common.base.support;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Set;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import org.junit.Assert;
+import org.junit.Test;
+import vip.justlive.common.base.annotation.Configuration;
+import vip.justlive.common.base.annotation.Singleton;
+import vip.justlive.common.base.ioc.Conf;
+import vip.justlive.common.base.ioc.DepBean;
+
+public class BeanIndexTest {
+
+  @Test
+  public void test() {
+
+    // 测试类编译时生成了索引
+    Assert.assertTrue(BeanIndex.isPresent());
+    Set<Class<?>> singletons = BeanIndex.getTypesAnnotatedWith(Singleton.class, "vip.justlive");
+    Assert.assertTrue(singletons.contains(DepBean.class));
+    Assert.assertTrue(
+        BeanIndex.getTypesAnnotatedWith(Configuration.class, "vip.justlive").contains(Conf.class));
+    Assert.assertTrue(BeanIndex.getTypesAnnotatedWith(Singleton.class, "com.example").isEmpty());
+
+    // 忽略索引时回退为扫描
+    System.setProperty("main.index.ignore", "true");
+    try {
+      BeanIndex.reset();
+      Assert.assertFalse(BeanIndex.isPresent());
+      Assert.assertTrue(BeanIndex.getTypesAnnotatedWith(Singleton.class, "vip.justlive")
+          .contains(DepBean.class));
+    } finally {
+      System.clearProperty("main.index.ignore");
+      BeanIndex.reset();
+    }
+
+  }
+
+  @Test
+  public void test2() throws Exception {
+
+    // 编译一个不经过注解处理器的类，所在目录没有索引
+    Path dir = Files.createTempDirectory("snow-unindexed");
+    Path source = dir.resolve("Plain.java");
+    Files.write(source, ("package com.example.unindexed;\n"
+        + "@vip.justlive.common.base.annotation.Singleton\n" + "public class Plain {}\n")
+            .getBytes(StandardCharsets.UTF_8));
+    String classpath =
+        Paths.get(Singleton.class.getProtectionDomain().getCodeSource().getLocation().toURI())
+            .toString();
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    Assert.assertEquals(0, compiler.run(null, null, null, "-proc:none", "-cp", classpath, "-d",
+        dir.toString(), source.toString()));
+
+    Thread thread = Thread.currentThread();
+    ClassLoader original = thread.getContextClassLoader();
+    try (URLClassLoader loader = new URLClassLoader(new URL[] {dir.toUri().toURL()}, original)) {
+      thread.setContextClassLoader(loader);
+      BeanIndex.reset();
+
+      // 有索引时，没有索引覆盖的包路径仍通过扫描发现
+      Assert.assertTrue(BeanIndex.isPresent());
+      Set<Class<?>> singletons = BeanIndex.getTypesAnnotatedWith(Singleton.class, "vip.justlive",
+          "com.example.unindexed");
+      Assert.assertTrue(singletons.contains(DepBean.class));
+      Assert.assertTrue(singletons.contains(loader.loadClass("com.example.unindexed.Plain")));
+    } finally {
+      thread.setContextClassLoader(original);
+      BeanIndex.reset();
+    }
+
+  }
+
+}
@@ -1,5 +1,6 @@
 package vip.justlive.common.base.support;
 
+import java.util.Properties;
 import org.junit.Assert;
 import org.junit.Test;
 import vip.justlive.common.base.support.ConfigFactory;
@@ -18,4 +19,27 @@ public class ConfigFactoryTest {
 
   }
 
+  @Test
+  public void testCache() {
+
+    Properties props = new Properties();
+    props.setProperty("cache.a", "${cache.b}-x");
+    props.setProperty("cache.b", "1");
+    ConfigFactory.loadProperties(() -> props);
+
+    String value = ConfigFactory.getProperty("cache.a");
+    Assert.assertEquals("1-x", value);
+    Assert.assertSame(value, ConfigFactory.getProperty("cache.a"));
+    Assert.assertNull(ConfigFactory.getProperty("cache.c"));
+    Assert.assertEquals("1", ConfigFactory.getProperty("cache.c", "${cache.b}"));
+
+    props.clear();
+    props.setProperty("cache.b", "2");
+    props.setProperty("cache.c", "3");
+    ConfigFactory.loadProperties(() -> props);
+
+    Assert.assertEquals("2-x", ConfigFactory.getProperty("cache.a"));
+    Assert.assertEquals("3", ConfigFactory.getProperty("cache.c"));
+  }
+
 }
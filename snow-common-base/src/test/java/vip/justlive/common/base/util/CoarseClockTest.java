@@ -0,0 +1,48 @@
+package vip.justlive.common.base.util;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CoarseClockTest {
+
+  @Test
+  public void test() throws Exception {
+
+    CoarseClock clock = CoarseClock.create(1, TimeUnit.MILLISECONDS);
+    try {
+      Assert.assertTrue(Math.abs(clock.millis() - System.currentTimeMillis()) <= 5);
+
+      // 空闲退避后读取仍然是当前时间
+      TimeUnit.MILLISECONDS.sleep(1500);
+      Assert.assertTrue(Math.abs(clock.millis() - System.currentTimeMillis()) <= 5);
+    } finally {
+      clock.close();
+    }
+    Assert.assertTrue(Math.abs(CoarseClock.now() - System.currentTimeMillis()) <= 5);
+
+  }
+
+  @Test
+  public void test2() throws Exception {
+
+    CoarseClock clock = CoarseClock.create(1, TimeUnit.MILLISECONDS);
+    // 停止后台线程，模拟切换到刷新时缓存时间还未更新
+    clock.close();
+    Field updater = CoarseClock.class.getDeclaredField("updater");
+    updater.setAccessible(true);
+    ((Thread) updater.get(clock)).join(1000);
+
+    TimeUnit.MILLISECONDS.sleep(20);
+    long idleRead = clock.millis();
+
+    Field idle = CoarseClock.class.getDeclaredField("idle");
+    idle.setAccessible(true);
+    idle.set(clock, false);
+    long activeRead = clock.millis();
+    Assert.assertTrue(activeRead + " < " + idleRead, activeRead >= idleRead);
+
+  }
+
+}
@@ -1,16 +1,46 @@
 package vip.justlive.common.base.util;
 
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.Assert;
 import org.junit.Test;
 import vip.justlive.common.base.util.ExpiringMap.CleanPolicy;
+import vip.justlive.common.base.util.ExpiringMap.EvictionPolicy;
 import vip.justlive.common.base.util.ExpiringMap.ExpiringPolicy;
+import vip.justlive.common.base.util.ExpiringMap.RemovalCause;
+import vip.justlive.common.base.util.ExpiringMap.StoreMode;
 
 /**
  * @author wubo
  */
 public class ExpiringMapTest {
 
+  private static final ExpiringMap.ValueCodec<String> CODEC =
+      new ExpiringMap.ValueCodec<String>() {
+        @Override
+        public byte[] encode(String value) {
+          return value.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public String decode(byte[] bytes) {
+          return new String(bytes, StandardCharsets.UTF_8);
+        }
+      };
+
   @Test
   public void test1() throws Exception {
 
@@ -131,4 +161,423 @@ public class ExpiringMapTest {
 
   }
 
+  @Test
+  public void test5() throws Exception {
+
+    ExpiringMap<Object, Integer> expiringMap = ExpiringMap.<Object, Integer>builder()
+        // 默认失效时间 1s
+        .expiration(1, TimeUnit.SECONDS)
+        // 分段存储，键无需实现Comparable
+        .storeMode(StoreMode.STRIPED).concurrencyLevel(8).build();
+
+    Object key = new Object();
+    expiringMap.put(key, 1);
+    for (int i = 0; i < 100; i++) {
+      expiringMap.put(i, i);
+    }
+
+    Assert.assertEquals(Integer.valueOf(1), expiringMap.get(key));
+    Assert.assertEquals(101, expiringMap.size());
+    Assert.assertNull(expiringMap.putIfAbsent(key + "", 2));
+    Assert.assertEquals(Integer.valueOf(2), expiringMap.putIfAbsent(key + "", 3));
+    Assert.assertTrue(expiringMap.replace(key, 1, 4));
+    Assert.assertEquals(Integer.valueOf(4), expiringMap.remove(key));
+
+    TimeUnit.MILLISECONDS.sleep(1100);
+
+    Assert.assertNull(expiringMap.get(1));
+    Assert.assertTrue(expiringMap.isEmpty());
+
+  }
+
+  @Test
+  public void test6() throws Exception {
+
+    ExpiringMap<String, Integer> expiringMap = ExpiringMap.<String, Integer>builder()
+        // 默认失效时间 1s
+        .expiration(1, TimeUnit.SECONDS)
+        // 访问刷新
+        .expiringPolicy(ExpiringPolicy.ACCESSED)
+        // 累积2次
+        .accumulateThreshold(2).build();
+
+    String key = "key";
+    String k = "k";
+    expiringMap.put(key, 1);
+    expiringMap.put(k, 1);
+
+    TimeUnit.MILLISECONDS.sleep(600);
+
+    // 刷新key的失效时间，k不刷新
+    Assert.assertNotNull(expiringMap.get(key));
+
+    TimeUnit.MILLISECONDS.sleep(600);
+
+    // 触发清理，只移除到期的k，key按刷新后的时间重新入索引
+    expiringMap.get(k);
+    expiringMap.get(k);
+    TimeUnit.MILLISECONDS.sleep(100);
+
+    Assert.assertEquals(1, expiringMap.realSize());
+    Assert.assertNotNull(expiringMap.get(key));
+
+  }
+
+  @Test
+  public void test7() {
+
+    ExpiringMap<String, Integer> lru =
+        ExpiringMap.<String, Integer>builder().maxSize(3).evictionPolicy(EvictionPolicy.LRU).build();
+    lru.put("a", 1);
+    lru.put("b", 2);
+    lru.put("c", 3);
+    lru.get("a");
+    lru.put("d", 4);
+
+    Assert.assertEquals(3, lru.realSize());
+    Assert.assertNull(lru.get("b"));
+    Assert.assertNotNull(lru.get("a"));
+
+    ExpiringMap<String, Integer> lfu =
+        ExpiringMap.<String, Integer>builder().maxSize(3).evictionPolicy(EvictionPolicy.LFU).build();
+    lfu.put("a", 1);
+    lfu.put("b", 2);
+    lfu.put("c", 3);
+    lfu.get("a");
+    lfu.get("a");
+    lfu.get("c");
+    lfu.put("d", 4);
+
+    Assert.assertNull(lfu.get("b"));
+    Assert.assertNotNull(lfu.get("a"));
+    Assert.assertNotNull(lfu.get("c"));
+
+    // 按权重限制
+    ExpiringMap<String, String> weighted = ExpiringMap.<String, String>builder().maxSize(10)
+        .weigher((k, v) -> v.length()).build();
+    weighted.put("a", "1234");
+    weighted.put("b", "1234");
+    weighted.put("c", "1234");
+
+    Assert.assertEquals(2, weighted.realSize());
+    Assert.assertNull(weighted.get("a"));
+
+  }
+
+  @Test
+  public void test8() {
+
+    ExpiringMap<Integer, Integer> expiringMap = ExpiringMap.<Integer, Integer>builder()
+        .maxSize(100).evictionPolicy(EvictionPolicy.TINY_LFU).build();
+
+    for (int i = 0; i < 100; i++) {
+      expiringMap.put(i, i);
+    }
+    // 0-9为热点数据
+    for (int round = 0; round < 10; round++) {
+      for (int i = 0; i < 10; i++) {
+        expiringMap.get(i);
+      }
+    }
+    // 一次性扫描不应挤掉热点数据
+    for (int i = 1000; i < 2000; i++) {
+      expiringMap.put(i, i);
+    }
+
+    Assert.assertEquals(100, expiringMap.realSize());
+    for (int i = 0; i < 10; i++) {
+      Assert.assertNotNull(expiringMap.get(i));
+    }
+
+  }
+
+  @Test
+  public void test9() throws Exception {
+
+    ExpiringMap<String, String> expiringMap = ExpiringMap.<String, String>builder()
+        .storeMode(StoreMode.STRIPED).concurrencyLevel(4).build();
+    expiringMap.put("k1", "v1", 100, TimeUnit.MILLISECONDS);
+    expiringMap.put("k2", "v2");
+    expiringMap.put("k3", "v3");
+
+    Assert.assertEquals(3, expiringMap.size());
+    Assert.assertTrue(expiringMap.keySet().contains("k1"));
+
+    TimeUnit.MILLISECONDS.sleep(150);
+
+    // 视图跳过已过期的键值，size只清理到期的段
+    Assert.assertEquals(2, expiringMap.keySet().size());
+    Assert.assertFalse(expiringMap.keySet().contains("k1"));
+    Assert.assertEquals(2, expiringMap.realSize());
+
+    for (Map.Entry<String, String> entry : expiringMap.entrySet()) {
+      entry.setValue(entry.getValue() + "x");
+    }
+    Assert.assertEquals("v2x", expiringMap.get("k2"));
+    Assert.assertTrue(expiringMap.values().contains("v3x"));
+
+    Iterator<String> it = expiringMap.keySet().iterator();
+    it.next();
+    it.remove();
+    Assert.assertEquals(1, expiringMap.size());
+    Assert.assertFalse(expiringMap.isEmpty());
+
+  }
+
+  @Test
+  public void test10() throws Exception {
+
+    AtomicInteger loads = new AtomicInteger();
+    CountDownLatch latch = new CountDownLatch(1);
+    ExpiringMap<String, String> expiringMap = ExpiringMap.<String, String>builder()
+        .expiration(200, TimeUnit.MILLISECONDS).loader(key -> {
+          loads.incrementAndGet();
+          latch.await();
+          return key + "-v";
+        }).refreshAhead(150, TimeUnit.MILLISECONDS).build();
+
+    // 并发未命中只加载一次
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    List<Future<String>> futures = new ArrayList<>();
+    for (int i = 0; i < 8; i++) {
+      futures.add(executor.submit(() -> expiringMap.get("k")));
+    }
+    TimeUnit.MILLISECONDS.sleep(50);
+    latch.countDown();
+    for (Future<String> future : futures) {
+      Assert.assertEquals("k-v", future.get());
+    }
+    executor.shutdown();
+    Assert.assertEquals(1, loads.get());
+
+    Map<String, String> all = expiringMap.getAll(Arrays.asList("k", "a", "b"));
+    Assert.assertEquals(3, all.size());
+    Assert.assertEquals("b-v", all.get("b"));
+    Assert.assertEquals(3, loads.get());
+
+    // 剩余有效期小于150毫秒后读取触发异步刷新
+    TimeUnit.MILLISECONDS.sleep(100);
+    Assert.assertEquals("k-v", expiringMap.get("k"));
+    TimeUnit.MILLISECONDS.sleep(150);
+    Assert.assertEquals(4, loads.get());
+    Assert.assertEquals("k-v", expiringMap.getIfPresent("k"));
+
+  }
+
+  @Test
+  public void test11() throws Exception {
+
+    ExpiringMap<String, String> expiringMap = ExpiringMap.<String, String>builder().maxSize(3)
+        .recordStats().build();
+    expiringMap.put("a", "1");
+    expiringMap.put("a", "2");
+    expiringMap.put("b", "1", 50, TimeUnit.MILLISECONDS);
+    expiringMap.put("c", "1");
+    expiringMap.get("a");
+    expiringMap.get("x");
+    expiringMap.remove("c");
+
+    TimeUnit.MILLISECONDS.sleep(100);
+    expiringMap.put("d", "1");
+    // 到期的键值不计入数量，由清理线程异步移除
+    Assert.assertEquals(2, expiringMap.size());
+
+    for (int i = 0; i < 100 && expiringMap.stats().expirationCount() == 0; i++) {
+      TimeUnit.MILLISECONDS.sleep(10);
+    }
+    ExpiringMap.Stats stats = expiringMap.stats();
+    Assert.assertEquals(5, stats.putCount());
+    Assert.assertEquals(0.5, stats.hitRate(), 0.0001);
+    Assert.assertEquals(1, stats.removalCount(RemovalCause.REPLACED));
+    Assert.assertEquals(1, stats.removalCount(RemovalCause.EXPLICIT));
+    Assert.assertEquals(1, stats.expirationCount());
+    Assert.assertTrue(stats.sweepCount() > 0);
+    Assert.assertEquals(stats.missCount(), stats.toMap().get("miss.count"));
+
+    // 未开启时统计为空
+    Assert.assertEquals(0, ExpiringMap.create().stats().requestCount());
+
+  }
+
+  @Test
+  public void test12() throws Exception {
+
+    List<String> expired = new CopyOnWriteArrayList<>();
+    List<Thread> threads = new CopyOnWriteArrayList<>();
+    ExpiringMap<String, String> expiringMap = ExpiringMap.<String, String>builder()
+        .offHeap(CODEC, 4096).offHeapBlockSize(64).asyncExpiredListeners((k, v) -> {
+          threads.add(Thread.currentThread());
+          expired.add(v);
+        }).build();
+
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 300; i++) {
+      sb.append(i % 10);
+    }
+    String big = sb.toString();
+    expiringMap.put("big", big);
+    expiringMap.put("k", "v", 50, TimeUnit.MILLISECONDS);
+    Assert.assertEquals(big, expiringMap.get("big"));
+    Assert.assertEquals("v", expiringMap.get("k"));
+    Assert.assertEquals(big, expiringMap.put("big", "small"));
+    Assert.assertEquals("small", expiringMap.get("big"));
+
+    TimeUnit.MILLISECONDS.sleep(100);
+    Assert.assertEquals(1, expiringMap.size());
+    for (int i = 0; i < 100 && expired.isEmpty(); i++) {
+      TimeUnit.MILLISECONDS.sleep(10);
+    }
+    Assert.assertEquals(Arrays.asList("v"), expired);
+    // 监听不在调用size的线程执行
+    Assert.assertFalse(threads.contains(Thread.currentThread()));
+
+    // 堆外空间不足时淘汰最久未使用的键值
+    for (int i = 0; i < 100; i++) {
+      expiringMap.put("key" + i, big);
+    }
+    Assert.assertTrue(expiringMap.size() < 100);
+    Assert.assertEquals(big, expiringMap.get("key99"));
+    Assert.assertNull(expiringMap.get("key0"));
+    for (String value : expiringMap.values()) {
+      Assert.assertEquals(big, value);
+    }
+
+  }
+
+  @Test
+  public void test13() throws Exception {
+
+    ExpiringMap<String, String> expiringMap = ExpiringMap.create();
+    expiringMap.put("k1", "v1");
+    expiringMap.put("k2", "v2", 1, TimeUnit.MINUTES);
+    expiringMap.put("k3", "v3", 300, TimeUnit.MILLISECONDS);
+
+    Path path = Files.createTempFile("expiring", ".snap");
+    try {
+      Assert.assertEquals(3, expiringMap.snapshot(path, CODEC, CODEC));
+
+      TimeUnit.MILLISECONDS.sleep(400);
+
+      // 已过期的键值不恢复，已存在的键不覆盖
+      ExpiringMap<String, String> restored = ExpiringMap.create();
+      restored.put("k1", "new");
+      Assert.assertEquals(1, restored.restore(path, CODEC, CODEC));
+      Assert.assertEquals("new", restored.get("k1"));
+      Assert.assertEquals("v2", restored.get("k2"));
+      Assert.assertNull(restored.get("k3"));
+    } finally {
+      Files.deleteIfExists(path);
+    }
+
+  }
+
+  @Test
+  public void test14() throws Exception {
+
+    List<ExpiringMap<String, String>> maps = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      ExpiringMap<String, String> expiringMap = ExpiringMap.<String, String>builder()
+          .cleanPolicy(CleanPolicy.SCHEDULE).scheduleDelay(1).build();
+      expiringMap.put("k", "v", 10, TimeUnit.MILLISECONDS);
+      maps.add(expiringMap);
+    }
+
+    TimeUnit.MILLISECONDS.sleep(1500);
+
+    // 所有map共用一个清理线程
+    long threads = Thread.getAllStackTraces().keySet().stream()
+        .filter(t -> t.getName().startsWith("ExpiringMap-Clean-Pool")).count();
+    Assert.assertEquals(1, threads);
+    for (ExpiringMap<String, String> expiringMap : maps) {
+      Assert.assertEquals(0, expiringMap.realSize());
+    }
+
+    ExpiringMap<String, String> expiringMap = maps.get(0);
+    expiringMap.put("k", "v");
+    expiringMap.close();
+    Assert.assertTrue(expiringMap.isEmpty());
+
+  }
+
+  @Test
+  public void test15() throws Exception {
+
+    ExpiringMap<String, String> expiringMap = ExpiringMap.<String, String>builder()
+        .expiringPolicy(ExpiringPolicy.ACCESSED).cleanPolicy(CleanPolicy.SCHEDULE)
+        .scheduleDelay(60).build();
+    expiringMap.put("accessed", "v", 100, TimeUnit.MILLISECONDS);
+    expiringMap.put("expired", "v", 100, TimeUnit.MILLISECONDS);
+    for (int i = 0; i < 200; i++) {
+      expiringMap.put("key" + i, "v");
+    }
+
+    TimeUnit.MILLISECONDS.sleep(60);
+    Assert.assertEquals("v", expiringMap.get("accessed"));
+    TimeUnit.MILLISECONDS.sleep(60);
+
+    // 只检查失效索引头部，访问刷新后索引中deadline已过但未过期的仍计入
+    Assert.assertEquals(201, expiringMap.size());
+    Assert.assertNull(expiringMap.get("expired"));
+    Assert.assertEquals("v", expiringMap.get("accessed"));
+
+    expiringMap.close();
+
+  }
+
+  @Test
+  public void test16() throws Exception {
+
+    // 耗时的监听不阻塞其它map的清理和通知
+    CountDownLatch blocked = new CountDownLatch(1);
+    ExecutorService slowExecutor = Executors.newSingleThreadExecutor();
+    ExpiringMap<String, String> slow = ExpiringMap.<String, String>builder()
+        .listenerExecutor(slowExecutor).asyncExpiredListeners((k, v) -> {
+          try {
+            blocked.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }).build();
+    List<String> expired = new CopyOnWriteArrayList<>();
+    ExpiringMap<String, String> fast = ExpiringMap.<String, String>builder()
+        .asyncExpiredListeners((k, v) -> expired.add(k)).build();
+
+    slow.put("k", "v", 10, TimeUnit.MILLISECONDS);
+    TimeUnit.MILLISECONDS.sleep(50);
+    slow.size();
+    for (int i = 0; i < 100 && slow.realSize() > 0; i++) {
+      TimeUnit.MILLISECONDS.sleep(10);
+    }
+    Assert.assertEquals(0, slow.realSize());
+
+    fast.put("k", "v", 10, TimeUnit.MILLISECONDS);
+    TimeUnit.MILLISECONDS.sleep(50);
+    fast.size();
+    for (int i = 0; i < 100 && expired.isEmpty(); i++) {
+      TimeUnit.MILLISECONDS.sleep(10);
+    }
+    Assert.assertEquals(Arrays.asList("k"), expired);
+    blocked.countDown();
+    slowExecutor.shutdown();
+
+    // 每次清理有上限，超出的部分重新排队直到清理完
+    ExpiringMap<String, String> large =
+        ExpiringMap.<String, String>builder().concurrencyLevel(1).build();
+    for (int i = 0; i < 10000; i++) {
+      large.put("key" + i, "v", 10, TimeUnit.MILLISECONDS);
+    }
+    TimeUnit.MILLISECONDS.sleep(50);
+    large.size();
+    for (int i = 0; i < 100 && large.realSize() > 0; i++) {
+      TimeUnit.MILLISECONDS.sleep(10);
+    }
+    Assert.assertEquals(0, large.realSize());
+    Assert.assertEquals(0, large.size());
+
+    slow.close();
+    fast.close();
+    large.close();
+
+  }
+
 }
@@ -0,0 +1,59 @@
+package vip.justlive.common.base.util;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.Assert;
+import org.junit.Test;
+import vip.justlive.common.base.exception.CodedException;
+
+public class FanOutTest {
+
+  @Test
+  public void test1() throws Exception {
+
+    List<Integer> results = ThreadUtils.fanOut(1, TimeUnit.SECONDS, () -> {
+      Thread.sleep(50);
+      return 1;
+    }, () -> 2, () -> 3);
+    Assert.assertEquals(Arrays.asList(1, 2, 3), results);
+
+    // 任一失败时中断其余任务
+    CountDownLatch interrupted = new CountDownLatch(1);
+    try {
+      ThreadUtils.fanOut(5, TimeUnit.SECONDS, () -> {
+        try {
+          Thread.sleep(5000);
+        } catch (InterruptedException e) {
+          interrupted.countDown();
+          throw e;
+        }
+        return 1;
+      }, () -> {
+        Thread.sleep(20);
+        throw new IllegalStateException("fail");
+      });
+      Assert.fail();
+    } catch (CodedException e) {
+      Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+    Assert.assertTrue(interrupted.await(1, TimeUnit.SECONDS));
+
+    // 超时
+    long start = System.currentTimeMillis();
+    try {
+      ThreadUtils.fanOut(100, TimeUnit.MILLISECONDS, () -> {
+        Thread.sleep(5000);
+        return 1;
+      });
+      Assert.fail();
+    } catch (CodedException e) {
+      Assert.assertTrue(e.getCause() instanceof TimeoutException);
+    }
+    Assert.assertTrue(System.currentTimeMillis() - start < 1000);
+
+  }
+
+}
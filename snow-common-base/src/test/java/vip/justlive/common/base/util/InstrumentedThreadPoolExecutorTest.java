@@ -0,0 +1,89 @@
+package vip.justlive.common.base.util;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class InstrumentedThreadPoolExecutorTest {
+
+  @Test
+  public void test1() throws Exception {
+
+    InstrumentedThreadPoolExecutor executor =
+        ThreadUtils.newInstrumentedThreadPool(1, 1, 60, 2, "test-pool-%d");
+    CountDownLatch latch = new CountDownLatch(1);
+    for (int i = 0; i < 3; i++) {
+      executor.execute(() -> {
+        try {
+          latch.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      });
+    }
+    try {
+      executor.execute(() -> {
+      });
+      Assert.fail();
+    } catch (RejectedExecutionException e) {
+      // 队列已满
+    }
+
+    InstrumentedThreadPoolExecutor.Metrics metrics = executor.metrics();
+    Assert.assertEquals(1, metrics.rejectedCount());
+    Assert.assertEquals(2, metrics.queueSize());
+
+    // 扩大队列后可继续提交
+    executor.setQueueCapacity(3);
+    executor.execute(() -> {
+    });
+    Assert.assertEquals(3, executor.getQueue().size());
+
+    executor.resize(4, 4, 3);
+    Assert.assertEquals(4, executor.getCorePoolSize());
+    latch.countDown();
+    executor.shutdown();
+    Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+
+    metrics = executor.metrics();
+    Assert.assertEquals(4, metrics.completedTaskCount());
+    Assert.assertEquals(4, metrics.waitTime().count());
+    Assert.assertEquals(4, metrics.executionTime().count());
+    Assert.assertTrue(metrics.waitTime().percentile(0.99) > 0);
+    Assert.assertTrue(metrics.toMap().containsKey("execution.p99"));
+
+  }
+
+  @Test
+  public void test2() throws Exception {
+
+    InstrumentedThreadPoolExecutor executor =
+        ThreadUtils.newInstrumentedThreadPool(1, 1, 60, 4, "test-tune-%d");
+    CountDownLatch latch = new CountDownLatch(1);
+    for (int i = 0; i < 4; i++) {
+      executor.execute(() -> {
+        try {
+          latch.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      });
+    }
+
+    // 队列积压超过一半时自动扩容
+    executor.enableAutoTuning(1, 8, 20, TimeUnit.MILLISECONDS);
+    long deadline = System.currentTimeMillis() + 2000;
+    while (executor.getCorePoolSize() == 1 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    Assert.assertTrue(executor.getCorePoolSize() > 1);
+
+    latch.countDown();
+    executor.shutdown();
+    Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+
+  }
+
+}
@@ -34,4 +34,25 @@ public class PlaceHolderHelperTest {
     assertEquals("a", helper.replacePlaceholders(props.getProperty("d"), props));
     assertEquals("a", helper.replacePlaceholders(props.getProperty("e"), props));
   }
+
+  @Test
+  public void testTemplate() {
+
+    PlaceHolderHelper.Template template = helper.compile("x-${b}-${g}-${h:${c}}");
+    assertSame(template, helper.compile("x-${b}-${g}-${h:${c}}"));
+    assertFalse(template.isLiteral());
+    assertEquals("x-a-${g}-a", helper.resolve(template, props));
+
+    PlaceHolderHelper.Template literal = helper.compile("plain ${text");
+    assertTrue(literal.isLiteral());
+    assertSame(literal.getSource(), helper.resolve(literal, props));
+
+    props.put("g", "${c}${g}");
+    try {
+      helper.replacePlaceholders("${g}", props);
+      fail();
+    } catch (IllegalArgumentException e) {
+      // circular
+    }
+  }
 }
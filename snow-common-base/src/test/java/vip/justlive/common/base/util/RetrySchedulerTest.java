@@ -0,0 +1,118 @@
+package vip.justlive.common.base.util;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RetrySchedulerTest {
+
+  @Test
+  public void test1() throws Exception {
+
+    AtomicInteger count = new AtomicInteger();
+    CompletableFuture<Integer> future = ThreadUtils.retry(() -> {
+      if (count.incrementAndGet() < 3) {
+        throw new IllegalStateException("fail");
+      }
+      return count.get();
+    }, RetryPolicy.builder().maxAttempts(5).backoff(10, 50, TimeUnit.MILLISECONDS).build());
+    Assert.assertEquals(3, future.get(5, TimeUnit.SECONDS).intValue());
+
+    AtomicInteger failed = new AtomicInteger();
+    CompletableFuture<Object> exhausted = ThreadUtils.retryAsync(() -> {
+      throw new IllegalStateException("always");
+    }, 2, () -> failed.incrementAndGet());
+    try {
+      exhausted.get(5, TimeUnit.SECONDS);
+      Assert.fail();
+    } catch (ExecutionException e) {
+      Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+    Thread.sleep(50);
+    Assert.assertEquals(1, failed.get());
+
+    // 次数小于1时仍执行一次
+    CountDownLatch latch = new CountDownLatch(1);
+    ThreadUtils.retry(() -> {
+      latch.countDown();
+      return null;
+    }, 0);
+    Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+  }
+
+  @Test
+  public void test2() throws Exception {
+
+    RetryScheduler scheduler = new RetryScheduler(Executors.newFixedThreadPool(2),
+        Executors.newSingleThreadScheduledExecutor(), 100);
+    RetryPolicy policy = RetryPolicy.builder().maxAttempts(1)
+        .circuitBreaker("db", 2, 200, TimeUnit.MILLISECONDS).build();
+    AtomicInteger calls = new AtomicInteger();
+    for (int i = 0; i < 3; i++) {
+      CompletableFuture<Object> future = scheduler.submit(() -> {
+        calls.incrementAndGet();
+        throw new IllegalStateException("down");
+      }, policy);
+      try {
+        future.get(5, TimeUnit.SECONDS);
+        Assert.fail();
+      } catch (ExecutionException e) {
+        // 失败
+      }
+    }
+
+    // 连续失败2次后熔断，第3次不再执行
+    Assert.assertEquals(2, calls.get());
+    Assert.assertTrue(scheduler.isCircuitOpen("db"));
+
+    Thread.sleep(250);
+    Assert.assertEquals("ok", scheduler.submit(() -> "ok", policy).get(5, TimeUnit.SECONDS));
+    Assert.assertFalse(scheduler.isCircuitOpen("db"));
+
+  }
+
+  @Test
+  public void test3() throws Exception {
+
+    RetryScheduler scheduler = new RetryScheduler(Executors.newFixedThreadPool(2),
+        Executors.newSingleThreadScheduledExecutor(), 100);
+    RetryPolicy policy = RetryPolicy.builder().maxAttempts(3)
+        .circuitBreaker("err", 1, 100, TimeUnit.MILLISECONDS).build();
+    AtomicInteger calls = new AtomicInteger();
+    try {
+      scheduler.submit(() -> {
+        calls.incrementAndGet();
+        throw new IllegalStateException("down");
+      }, policy).get(5, TimeUnit.SECONDS);
+      Assert.fail();
+    } catch (ExecutionException e) {
+      // 熔断打开
+    }
+    Assert.assertTrue(scheduler.isCircuitOpen("err"));
+
+    // 试探时抛出Error，不重试且future完成
+    Thread.sleep(150);
+    try {
+      scheduler.submit(() -> {
+        calls.incrementAndGet();
+        throw new AssertionError("fatal");
+      }, policy).get(5, TimeUnit.SECONDS);
+      Assert.fail();
+    } catch (ExecutionException e) {
+      Assert.assertTrue(e.getCause() instanceof AssertionError);
+    }
+    Assert.assertEquals(2, calls.get());
+
+    // 试探状态已释放，熔断到期后可以恢复
+    Thread.sleep(150);
+    Assert.assertEquals("ok", scheduler.submit(() -> "ok", policy).get(5, TimeUnit.SECONDS));
+    Assert.assertFalse(scheduler.isCircuitOpen("err"));
+  }
+
+}
@@ -0,0 +1,244 @@
+package vip.justlive.common.base.util;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SnowflakeIdWorkerTest {
+
+  @Test
+  public void test1() throws Exception {
+
+    SnowflakeIdWorker worker = new SnowflakeIdWorker(3, 5);
+    Set<Long> ids = ConcurrentHashMap.newKeySet();
+    ExecutorService executor = Executors.newFixedThreadPool(16);
+    for (int i = 0; i < 16; i++) {
+      executor.execute(() -> {
+        for (int j = 0; j < 20000; j++) {
+          ids.add(worker.nextId());
+        }
+      });
+    }
+    executor.shutdown();
+    Assert.assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+    // 并发生成不重复，且保持原有位布局
+    Assert.assertEquals(16 * 20000, ids.size());
+    long id = worker.nextId();
+    Assert.assertEquals(3, (id >>> 12) & 31);
+    Assert.assertEquals(5, (id >>> 17) & 31);
+
+    long pre = worker.nextId();
+    for (int i = 0; i < 10000; i++) {
+      long next = worker.nextId();
+      Assert.assertTrue(next > pre);
+      pre = next;
+    }
+
+  }
+
+  @Test
+  public void test2() {
+
+    SnowflakeIdWorker worker = new SnowflakeIdWorker(1, 1);
+    long before = worker.nextId();
+    // 超出单毫秒4096个序列，顺延到后续毫秒
+    long[] ids = worker.nextIds(10000);
+    Assert.assertEquals(10000, ids.length);
+    Assert.assertTrue(ids[0] > before);
+    for (int i = 1; i < ids.length; i++) {
+      Assert.assertTrue(ids[i] > ids[i - 1]);
+    }
+    Assert.assertTrue((ids[ids.length - 1] >>> 22) > (ids[0] >>> 22));
+    Assert.assertTrue(worker.nextId() > ids[ids.length - 1]);
+
+  }
+
+  @Test
+  public void test3() {
+
+    AtomicLong clock = new AtomicLong(System.currentTimeMillis());
+    SnowflakeIdWorker worker = new SnowflakeIdWorker(0, 0) {
+      @Override
+      long timeGen() {
+        return clock.get();
+      }
+    };
+
+    long pre = worker.nextId();
+    clock.addAndGet(-20);
+    try {
+      worker.nextId();
+      Assert.fail();
+    } catch (IllegalStateException e) {
+      // 默认模式回退超过5毫秒拒绝生成
+    }
+
+    // 借用模式下回退不超过范围时继续生成
+    worker.setMaxBorrowMillis(50);
+    for (int i = 0; i < 10000; i++) {
+      long next = worker.nextId();
+      Assert.assertTrue(next > pre);
+      pre = next;
+    }
+    Assert.assertEquals(1, worker.getBackwardsCount());
+    Assert.assertEquals(20, worker.getMaxBackwardsMillis());
+    Assert.assertTrue(worker.getAheadMillis() >= 20);
+    Assert.assertTrue(worker.getBorrowCount() > 0);
+
+  }
+
+  @Test
+  public void test4() throws Exception {
+
+    Path dir = Files.createTempDirectory("snow-worker");
+    FileLockWorkerIdAssigner assigner = new FileLockWorkerIdAssigner(dir);
+
+    WorkerIdLease lease1 = WorkerIdLease.start(assigner, 50, TimeUnit.MILLISECONDS);
+    WorkerIdLease lease2 = WorkerIdLease.start(assigner, 50, TimeUnit.MILLISECONDS);
+    Assert.assertNotEquals(lease1.getNodeId(), lease2.getNodeId());
+    Assert.assertTrue(assigner.renew(lease1.getNodeId()));
+
+    lease2.installAsDefault();
+    long id = SnowflakeIdWorker.defaultNextId();
+    Assert.assertEquals(lease2.getNodeId(), (id >>> 12) & 1023);
+
+    // 释放后节点id可被重新获取
+    int nodeId = lease1.getNodeId();
+    lease1.close();
+    Assert.assertFalse(assigner.renew(nodeId));
+    WorkerIdLease lease3 = WorkerIdLease.start(assigner, 50, TimeUnit.MILLISECONDS);
+    Assert.assertEquals(nodeId, lease3.getNodeId());
+
+    lease2.close();
+    lease3.close();
+    SnowflakeIdWorker.setDefaultWorker(new SnowflakeIdWorker(0, 0));
+
+  }
+
+  @Test
+  public void test5() throws Exception {
+
+    LeaseAssigner assigner = new LeaseAssigner();
+    WorkerIdLease lease = WorkerIdLease.start(assigner, 20, TimeUnit.MILLISECONDS);
+    Assert.assertEquals(0, lease.getNodeId());
+    lease.nextId();
+
+    // 续约异常超过有效期后拒绝生成id
+    assigner.down = true;
+    TimeUnit.MILLISECONDS.sleep(250);
+    try {
+      lease.nextId();
+      Assert.fail();
+    } catch (IllegalStateException e) {
+      // 租约过期
+    }
+
+    // 续约恢复后继续生成
+    assigner.down = false;
+    TimeUnit.MILLISECONDS.sleep(100);
+    lease.nextId();
+
+    // 租约丢失后旧worker立即停止，切换到新节点id
+    SnowflakeIdWorker old = lease.getWorker();
+    assigner.lost = true;
+    TimeUnit.MILLISECONDS.sleep(100);
+    Assert.assertEquals(1, lease.getNodeId());
+    try {
+      old.nextId();
+      Assert.fail();
+    } catch (IllegalStateException e) {
+      // 已失效
+    }
+    lease.nextId();
+
+    // 重新获取到相同节点id时沿用原worker，不重复签发已预留的id
+    SnowflakeIdWorker current = lease.getWorker();
+    long[] reserved = current.nextIds(1 << 14);
+    assigner.reuse = true;
+    assigner.lost = true;
+    TimeUnit.MILLISECONDS.sleep(100);
+    Assert.assertEquals(1, lease.getNodeId());
+    Assert.assertSame(current, lease.getWorker());
+    Assert.assertTrue(lease.nextId() > reserved[reserved.length - 1]);
+
+    lease.close();
+
+  }
+
+  @Test
+  public void test6() throws Exception {
+
+    // 使用粗粒度时钟时同样能感知时钟回退
+    AtomicLong source = new AtomicLong(System.currentTimeMillis());
+    CoarseClock clock = CoarseClock.create(1, TimeUnit.MILLISECONDS, source::get);
+    SnowflakeIdWorker worker = new SnowflakeIdWorker(0, 0);
+    worker.setClock(clock);
+    try {
+      long pre = worker.nextId();
+      TimeUnit.MILLISECONDS.sleep(10);
+      pre = Math.max(pre, worker.nextId());
+      source.addAndGet(-20);
+      TimeUnit.MILLISECONDS.sleep(10);
+      try {
+        worker.nextId();
+        Assert.fail();
+      } catch (IllegalStateException e) {
+        // 回退超过5毫秒拒绝生成
+      }
+
+      worker.setMaxBorrowMillis(50);
+      long next = worker.nextId();
+      Assert.assertTrue(next > pre);
+      Assert.assertEquals(1, worker.getBackwardsCount());
+      Assert.assertEquals(20, worker.getMaxBackwardsMillis());
+      Assert.assertTrue(worker.getBorrowCount() > 0);
+    } finally {
+      clock.close();
+    }
+
+  }
+
+  static class LeaseAssigner implements WorkerIdAssigner {
+
+    final AtomicLong acquired = new AtomicLong();
+    volatile boolean down;
+    volatile boolean lost;
+    volatile boolean reuse;
+
+    @Override
+    public int acquire() {
+      lost = false;
+      if (reuse) {
+        return (int) acquired.get() - 1;
+      }
+      return (int) acquired.getAndIncrement();
+    }
+
+    @Override
+    public boolean renew(int nodeId) {
+      if (down) {
+        throw new IllegalStateException("db down");
+      }
+      return !lost;
+    }
+
+    @Override
+    public void release(int nodeId) {
+      // nothing
+    }
+
+    @Override
+    public long leaseMillis() {
+      return 100;
+    }
+  }
+
+}
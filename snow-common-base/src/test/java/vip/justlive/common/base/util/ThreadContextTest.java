@@ -0,0 +1,59 @@
+package vip.justlive.common.base.util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ThreadContextTest {
+
+  @Test
+  public void test1() throws Exception {
+
+    ExecutorService executor = ThreadContext.wrap(Executors.newSingleThreadExecutor());
+    ScheduledExecutorService scheduler =
+        ThreadContext.wrap(Executors.newSingleThreadScheduledExecutor());
+
+    ThreadUtils.putVal("trace", "t-1");
+    ThreadContext.Snapshot snapshot = ThreadContext.capture();
+    Assert.assertEquals("t-1", executor.submit(() -> ThreadUtils.getVal("trace")).get());
+    Assert.assertEquals("t-1",
+        scheduler.schedule(() -> ThreadUtils.getVal("trace"), 10, TimeUnit.MILLISECONDS).get());
+
+    // 写入时复制，已捕获的快照不受影响
+    ThreadUtils.putVal("trace", "t-2");
+    Assert.assertTrue(snapshot.values().containsValue("t-1"));
+    Assert.assertFalse(snapshot.values().containsValue("t-2"));
+    Assert.assertEquals("t-2", executor.submit(() -> ThreadUtils.getVal("trace")).get());
+
+    // 任务结束后线程池线程不残留上下文
+    ThreadUtils.clear();
+    Assert.assertNull(executor.submit(() -> ThreadUtils.getVal("trace")).get());
+    Assert.assertNull(
+        Executors.newSingleThreadExecutor().submit(() -> ThreadUtils.getVal("trace")).get());
+
+    executor.shutdown();
+    scheduler.shutdown();
+
+  }
+
+  @Test
+  public void test2() {
+
+    // 与TrackImpl使用相同的键
+    ThreadContext.ContextLocal<String> uids = new ThreadContext.ContextLocal<>("track.uid");
+    uids.set("uid-1");
+    ThreadUtils.putVal("trace", "t-1");
+
+    // 只清除ThreadUtils的值，追踪id保留
+    ThreadUtils.clear();
+    Assert.assertNull(ThreadUtils.getVal("trace"));
+    Assert.assertEquals("uid-1", uids.get());
+
+    uids.remove();
+    Assert.assertNull(uids.get());
+  }
+
+}
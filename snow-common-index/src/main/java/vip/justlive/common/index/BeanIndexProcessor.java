@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2018 justlive1
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package vip.justlive.common.index;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * bean索引注解处理器
+ * <p>
+ * 编译时将被索引注解标记的类以及索引类型的实现类写入{@value #INDEX_LOCATION}，每行格式为"注解或类型=类名"，
+ * 运行时读取索引代替classpath扫描。<br>
+ * 处理器不依赖其他模块，按名称匹配注解和类型
+ *
+ * @author wubo
+ */
+public class BeanIndexProcessor extends AbstractProcessor {
+
+  /**
+   * 索引文件位置
+   */
+  public static final String INDEX_LOCATION = "META-INF/snow/bean.index";
+
+  /**
+   * 按注解索引
+   */
+  static final List<String> ANNOTATIONS = Arrays.asList(
+      "vip.justlive.common.base.annotation.Singleton",
+      "vip.justlive.common.base.annotation.Prototype",
+      "vip.justlive.common.base.annotation.Configuration",
+      "vip.justlive.common.web.vertx.annotation.VertxRoute",
+      "vip.justlive.common.web.vertx.annotation.VertxVerticle");
+
+  /**
+   * 按父类型索引，只索引可实例的类
+   */
+  static final List<String> TYPES =
+      Collections.singletonList("vip.justlive.common.base.datasource.TypeHandler");
+
+  private static final String SEPARATOR = "=";
+
+  private final Set<String> entries = new TreeSet<>();
+  private final Set<String> processed = new HashSet<>();
+
+  @Override
+  public Set<String> getSupportedAnnotationTypes() {
+    // 需要检查所有类的父类型
+    return Collections.singleton("*");
+  }
+
+  @Override
+  public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+    if (roundEnv.processingOver()) {
+      // 没有条目时也写出空索引，标记该模块已被索引覆盖，运行时不再扫描
+      if (!entries.isEmpty() || !processed.isEmpty()) {
+        writeIndex();
+      }
+      return false;
+    }
+    for (Element element : roundEnv.getRootElements()) {
+      collect(element);
+    }
+    return false;
+  }
+
+  private void collect(Element element) {
+    if (!(element instanceof TypeElement)) {
+      return;
+    }
+    TypeElement type = (TypeElement) element;
+    String name = processingEnv.getElementUtils().getBinaryName(type).toString();
+    processed.add(name);
+    for (AnnotationMirror mirror : type.getAnnotationMirrors()) {
+      String annotation =
+          ((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().toString();
+      if (ANNOTATIONS.contains(annotation)) {
+        entries.add(annotation + SEPARATOR + name);
+      }
+    }
+    if (type.getKind() == ElementKind.CLASS && !type.getModifiers().contains(Modifier.ABSTRACT)) {
+      for (String superType : TYPES) {
+        if (isSubtype(type.asType(), superType)) {
+          entries.add(superType + SEPARATOR + name);
+        }
+      }
+    }
+    for (Element enclosed : type.getEnclosedElements()) {
+      if (enclosed.getModifiers().contains(Modifier.STATIC)) {
+        collect(enclosed);
+      }
+    }
+  }
+
+  private boolean isSubtype(TypeMirror type, String superType) {
+    for (TypeMirror parent : processingEnv.getTypeUtils().directSupertypes(type)) {
+      Element element = ((DeclaredType) parent).asElement();
+      if (((TypeElement) element).getQualifiedName().contentEquals(superType)
+          || isSubtype(parent, superType)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void writeIndex() {
+    mergeExisting();
+    try {
+      FileObject file = processingEnv.getFiler()
+          .createResource(StandardLocation.CLASS_OUTPUT, "", INDEX_LOCATION);
+      try (Writer writer = file.openWriter()) {
+        for (String entry : entries) {
+          writer.write(entry);
+          writer.write('\n');
+        }
+      }
+    } catch (IOException e) {
+      processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+          "write " + INDEX_LOCATION + " error: " + e);
+    }
+  }
+
+  /**
+   * 增量编译时保留本次未编译但仍存在的类
+   */
+  private void mergeExisting() {
+    FileObject file;
+    try {
+      file = processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "",
+          INDEX_LOCATION);
+    } catch (IOException | IllegalArgumentException e) {
+      return;
+    }
+    try (BufferedReader reader = new BufferedReader(
+        new InputStreamReader(file.openInputStream(), StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        int index = line.indexOf(SEPARATOR);
+        if (index <= 0) {
+          continue;
+        }
+        String name = line.substring(index + 1);
+        if (!processed.contains(name)
+            && processingEnv.getElementUtils().getTypeElement(name.replace('$', '.')) != null) {
+          entries.add(line);
+        }
+      }
+    } catch (IOException e) {
+      // 不存在已有索引
+    }
+  }
+}
@@ -14,10 +14,10 @@
 package vip.justlive.common.web.vertx.core;
 
 import java.util.Set;
-import org.reflections.Reflections;
 import io.vertx.core.AbstractVerticle;
 import vip.justlive.common.base.constant.BaseConstants;
 import vip.justlive.common.base.ioc.Ioc;
+import vip.justlive.common.base.support.BeanIndex;
 import vip.justlive.common.base.support.ConfigFactory;
 import vip.justlive.common.web.vertx.annotation.VertxVerticle;
 
@@ -46,8 +46,7 @@ public class MainVerticle extends AbstractVerticle {
   public void start() {
 
     String location = ConfigFactory.getProperty(BaseConstants.VERTICLE_PATH_KEY, "vip.justlive");
-    Reflections ref = new Reflections(location);
-    Set<Class<?>> verticles = ref.getTypesAnnotatedWith(VertxVerticle.class);
+    Set<Class<?>> verticles = BeanIndex.getTypesAnnotatedWith(VertxVerticle.class, location);
     for (Class<?> clazz : verticles) {
       vertx.deployVerticle(clazz.getName());
     }
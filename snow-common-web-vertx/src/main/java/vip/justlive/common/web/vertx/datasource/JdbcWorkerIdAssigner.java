@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2018 justlive1
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package vip.justlive.common.web.vertx.datasource;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonArray;
+import io.vertx.ext.jdbc.JDBCClient;
+import io.vertx.ext.sql.ResultSet;
+import io.vertx.ext.sql.UpdateResult;
+import lombok.extern.slf4j.Slf4j;
+import vip.justlive.common.base.exception.Exceptions;
+import vip.justlive.common.base.util.Checks;
+import vip.justlive.common.base.util.WorkerIdAssigner;
+
+/**
+ * 通过数据库表租约分配雪花算法节点id
+ * <p>
+ * 表结构：
+ *
+ * <pre>
+ * CREATE TABLE SNOW_WORKER_LEASE (
+ *   NODE_ID INT PRIMARY KEY,
+ *   OWNER VARCHAR(128) NOT NULL,
+ *   EXPIRE_AT BIGINT NOT NULL
+ * )
+ * </pre>
+ * 
+ * 获取时占用未分配或已过期的节点id，续约时延长过期时间；续约间隔需小于租约有效期。<br>
+ * 方法会阻塞等待数据库结果，不能在event loop线程中调用
+ *
+ * @author wubo
+ */
+@Slf4j
+public class JdbcWorkerIdAssigner implements WorkerIdAssigner {
+
+  public static final String SELECT_SQL =
+      "SELECT NODE_ID FROM SNOW_WORKER_LEASE WHERE EXPIRE_AT >= ?";
+  public static final String INSERT_SQL =
+      "INSERT INTO SNOW_WORKER_LEASE (NODE_ID, OWNER, EXPIRE_AT) VALUES (?, ?, ?)";
+  public static final String TAKEOVER_SQL =
+      "UPDATE SNOW_WORKER_LEASE SET OWNER = ?, EXPIRE_AT = ? WHERE NODE_ID = ? AND EXPIRE_AT < ?";
+  public static final String RENEW_SQL = "UPDATE SNOW_WORKER_LEASE SET EXPIRE_AT = ? "
+      + "WHERE NODE_ID = ? AND OWNER = ? AND EXPIRE_AT >= ?";
+  public static final String RELEASE_SQL =
+      "DELETE FROM SNOW_WORKER_LEASE WHERE NODE_ID = ? AND OWNER = ?";
+
+  private static final long TIMEOUT_SECONDS = 30;
+
+  private final JDBCClient client;
+  private final long leaseMillis;
+  private final String owner;
+
+  public JdbcWorkerIdAssigner(long lease, TimeUnit unit) {
+    this(DataSourceFactory.sharedSingleJdbcClient(), lease, unit);
+  }
+
+  public JdbcWorkerIdAssigner(JDBCClient client, long lease, TimeUnit unit) {
+    Checks.notNull(client, "client can not be null");
+    Checks.notNull(unit, "unit can not be null");
+    if (lease <= 0) {
+      throw new IllegalArgumentException("lease should be positive");
+    }
+    this.client = client;
+    this.leaseMillis = unit.toMillis(lease);
+    this.owner = ManagementFactory.getRuntimeMXBean().getName() + "@"
+        + UUID.randomUUID().toString().substring(0, 8);
+  }
+
+  @Override
+  public int acquire() {
+    long now = System.currentTimeMillis();
+    ResultSet rs = await(h -> client.queryWithParams(SELECT_SQL, new JsonArray().add(now), h));
+    Set<Integer> used = new HashSet<>();
+    for (JsonArray row : rs.getResults()) {
+      used.add(row.getInteger(0));
+    }
+    for (int nodeId = 0; nodeId < MAX_NODE_ID; nodeId++) {
+      if (!used.contains(nodeId) && tryTake(nodeId, now)) {
+        log.info("acquired worker id [{}] as [{}]", nodeId, owner);
+        return nodeId;
+      }
+    }
+    throw new IllegalStateException("no free worker id in SNOW_WORKER_LEASE");
+  }
+
+  @Override
+  public long leaseMillis() {
+    return leaseMillis;
+  }
+
+  @Override
+  public boolean renew(int nodeId) {
+    long now = System.currentTimeMillis();
+    JsonArray params = new JsonArray().add(now + leaseMillis).add(nodeId).add(owner).add(now);
+    UpdateResult result = await(h -> client.updateWithParams(RENEW_SQL, params, h));
+    return result.getUpdated() == 1;
+  }
+
+  @Override
+  public void release(int nodeId) {
+    JsonArray params = new JsonArray().add(nodeId).add(owner);
+    this.<UpdateResult>await(h -> client.updateWithParams(RELEASE_SQL, params, h));
+  }
+
+  private boolean tryTake(int nodeId, long now) {
+    long expireAt = now + leaseMillis;
+    JsonArray takeover = new JsonArray().add(owner).add(expireAt).add(nodeId).add(now);
+    UpdateResult result = await(h -> client.updateWithParams(TAKEOVER_SQL, takeover, h));
+    if (result.getUpdated() == 1) {
+      return true;
+    }
+    JsonArray insert = new JsonArray().add(nodeId).add(owner).add(expireAt);
+    try {
+      UpdateResult inserted = await(h -> client.updateWithParams(INSERT_SQL, insert, h));
+      return inserted.getUpdated() == 1;
+    } catch (Exception e) {
+      // 主键冲突，已被其他进程占用
+      log.debug("take worker id [{}] failed", nodeId, e);
+      return false;
+    }
+  }
+
+  private <T> T await(Consumer<Handler<AsyncResult<T>>> action) {
+    if (Context.isOnEventLoopThread()) {
+      throw new IllegalStateException("JdbcWorkerIdAssigner can not block event loop thread");
+    }
+    CompletableFuture<T> future = new CompletableFuture<>();
+    action.accept(r -> {
+      if (r.succeeded()) {
+        future.complete(r.result());
+      } else {
+        future.completeExceptionally(r.cause());
+      }
+    });
+    try {
+      return future.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw Exceptions.wrap(e);
+    } catch (ExecutionException e) {
+      throw Exceptions.wrap(e.getCause());
+    } catch (TimeoutException e) {
+      throw Exceptions.wrap(e);
+    }
+  }
+}
@@ -18,7 +18,6 @@ import java.lang.reflect.Parameter;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
-import org.reflections.Reflections;
 import com.google.common.collect.ImmutableList;
 import io.vertx.core.Handler;
 import io.vertx.core.http.HttpMethod;
@@ -31,6 +30,7 @@ import vip.justlive.common.base.constant.BaseConstants;
 import vip.justlive.common.base.convert.support.DefaultConverterService;
 import vip.justlive.common.base.exception.Exceptions;
 import vip.justlive.common.base.ioc.Ioc;
+import vip.justlive.common.base.support.BeanIndex;
 import vip.justlive.common.web.vertx.annotation.VertxRoute;
 import vip.justlive.common.web.vertx.annotation.VertxRouteMapping;
 import vip.justlive.common.web.vertx.exception.ErrorCodes;
@@ -72,13 +72,15 @@ public class RouteRegisterFactory {
    */
   public void execute(String... basePackage) {
 
-    Reflections rel;
+    Set<Class<?>> classes;
     if (basePackage != null && basePackage.length > 0) {
-      rel = new Reflections("vip.justlive.common.web.vertx", basePackage);
+      String[] prefixes = new String[basePackage.length + 1];
+      prefixes[0] = "vip.justlive.common.web.vertx";
+      System.arraycopy(basePackage, 0, prefixes, 1, basePackage.length);
+      classes = BeanIndex.getTypesAnnotatedWith(VertxRoute.class, prefixes);
     } else {
-      rel = new Reflections();
+      classes = BeanIndex.getTypesAnnotatedWith(VertxRoute.class);
     }
-    Set<Class<?>> classes = rel.getTypesAnnotatedWith(VertxRoute.class);
 
     for (Class<?> clazz : classes) {
       if (clazz.isAnnotationPresent(VertxRoute.class)) {